@@ -0,0 +1,390 @@
+package org.terifan.raccoon;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+
+
+/**
+ * A size bounded cache of decompressed blocks shared by all collections of a database. The cache use the W-TinyLFU policy: new
+ * blocks enter a small LRU window and are only admitted to the main segmented LRU if they have been accessed more frequently than
+ * the block they would replace. Access frequencies are estimated with a count-min sketch that is periodically aged. A full scan
+ * therefore passes through the window without displacing the frequently used blocks.
+ * <p>
+ * Large caches are divided into independently locked segments selected by the hash of the key so that parallel readers rarely
+ * contend. Each segment applies the policy to its share of the capacity.
+ * <p>
+ * Blocks leaving the cache, except removed blocks, are passed to an optional eviction listener.
+ */
+final class BlockCache
+{
+	private final static long MIN_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	private final static int[] SEEDS =
+	{
+		0x97CB3127, 0xC3A5C85C, 0x9AE16A3B, 0xCBF29CE4
+	};
+
+	private final Segment[] mSegments;
+
+
+	BlockCache(long aCapacity, BiConsumer<Key, byte[]> aEvictionListener)
+	{
+		int count = Integer.highestOneBit((int)Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), aCapacity / MIN_SEGMENT_SIZE)));
+
+		mSegments = new Segment[count];
+		for (int i = 0; i < count; i++)
+		{
+			mSegments[i] = new Segment(aCapacity / count, aEvictionListener);
+		}
+	}
+
+
+	byte[] get(Key aKey)
+	{
+		return segmentOf(aKey).get(aKey);
+	}
+
+
+	void put(Key aKey, byte[] aValue)
+	{
+		segmentOf(aKey).put(aKey, aValue);
+	}
+
+
+	void remove(Key aKey)
+	{
+		segmentOf(aKey).remove(aKey);
+	}
+
+
+	void clear()
+	{
+		for (Segment segment : mSegments)
+		{
+			segment.clear();
+		}
+	}
+
+
+	long getHits()
+	{
+		long hits = 0;
+		for (Segment segment : mSegments)
+		{
+			hits += segment.getHits();
+		}
+		return hits;
+	}
+
+
+	long getMisses()
+	{
+		long misses = 0;
+		for (Segment segment : mSegments)
+		{
+			misses += segment.getMisses();
+		}
+		return misses;
+	}
+
+
+	int getSegmentCount()
+	{
+		return mSegments.length;
+	}
+
+
+	private Segment segmentOf(Key aKey)
+	{
+		int h = aKey.hashCode();
+		return mSegments[(h ^ (h >>> 16)) & (mSegments.length - 1)];
+	}
+
+
+	/**
+	 * Identifies a block by its address and generation. A block written to a reused address has a new generation and will never
+	 * match a stale entry.
+	 */
+	static final class Key
+	{
+		private final long mAddress;
+		private final long mGeneration;
+
+
+		Key(long aAddress, long aGeneration)
+		{
+			mAddress = aAddress;
+			mGeneration = aGeneration;
+		}
+
+
+		long getAddress()
+		{
+			return mAddress;
+		}
+
+
+		@Override
+		public boolean equals(Object aOther)
+		{
+			return aOther instanceof Key other && other.mAddress == mAddress && other.mGeneration == mGeneration;
+		}
+
+
+		@Override
+		public int hashCode()
+		{
+			return Long.hashCode((mAddress * 0x9E3779B97F4A7C15L) ^ mGeneration);
+		}
+
+
+		@Override
+		public String toString()
+		{
+			return mAddress + "@" + mGeneration;
+		}
+	}
+
+
+	private static final class Segment
+	{
+		private final LinkedHashMap<Key, byte[]> mWindow;
+		private final LinkedHashMap<Key, byte[]> mProbation;
+		private final LinkedHashMap<Key, byte[]> mProtected;
+		private final long mWindowCapacity;
+		private final long mMainCapacity;
+		private final long mProtectedCapacity;
+		private long mWindowSize;
+		private long mProbationSize;
+		private long mProtectedSize;
+
+		private final byte[] mSketch;
+		private final int mSketchMask;
+		private final int mSampleSize;
+		private int mAdditions;
+
+		private long mHits;
+		private long mMisses;
+		private final BiConsumer<Key, byte[]> mEvictionListener;
+
+
+		Segment(long aCapacity, BiConsumer<Key, byte[]> aEvictionListener)
+		{
+			mEvictionListener = aEvictionListener;
+
+			mWindow = new LinkedHashMap<>(16, 0.75f, true);
+			mProbation = new LinkedHashMap<>(16, 0.75f, true);
+			mProtected = new LinkedHashMap<>(16, 0.75f, true);
+
+			mWindowCapacity = Math.max(aCapacity / 100, Math.min(aCapacity, 64 * 1024));
+			mMainCapacity = aCapacity - mWindowCapacity;
+			mProtectedCapacity = mMainCapacity * 8 / 10;
+
+			int blocks = (int)Math.max(64, Math.min(1 << 24, aCapacity / 4096));
+			int width = Integer.highestOneBit(Math.min(1 << 24, 8 * blocks) * 2 - 1);
+			mSketch = new byte[SEEDS.length * width];
+			mSketchMask = width - 1;
+			mSampleSize = 10 * blocks;
+		}
+
+
+		synchronized byte[] get(Key aKey)
+		{
+			increment(aKey.hashCode());
+
+			byte[] value = mWindow.get(aKey);
+			if (value == null)
+			{
+				value = mProtected.get(aKey);
+			}
+			if (value == null)
+			{
+				value = mProbation.remove(aKey);
+				if (value != null)
+				{
+					mProbationSize -= value.length;
+					mProtected.put(aKey, value);
+					mProtectedSize += value.length;
+					demote();
+				}
+			}
+
+			if (value == null)
+			{
+				mMisses++;
+			}
+			else
+			{
+				mHits++;
+			}
+
+			return value;
+		}
+
+
+		synchronized void put(Key aKey, byte[] aValue)
+		{
+			if (aValue.length > mMainCapacity || mWindow.containsKey(aKey) || mProbation.containsKey(aKey) || mProtected.containsKey(aKey))
+			{
+				return;
+			}
+
+			mWindow.put(aKey, aValue);
+			mWindowSize += aValue.length;
+
+			for (Iterator<Entry<Key, byte[]>> it = mWindow.entrySet().iterator(); mWindowSize > mWindowCapacity && it.hasNext();)
+			{
+				Entry<Key, byte[]> candidate = it.next();
+				it.remove();
+				mWindowSize -= candidate.getValue().length;
+				admit(candidate.getKey(), candidate.getValue());
+			}
+		}
+
+
+		synchronized void remove(Key aKey)
+		{
+			byte[] value;
+			if ((value = mWindow.remove(aKey)) != null)
+			{
+				mWindowSize -= value.length;
+			}
+			else if ((value = mProbation.remove(aKey)) != null)
+			{
+				mProbationSize -= value.length;
+			}
+			else if ((value = mProtected.remove(aKey)) != null)
+			{
+				mProtectedSize -= value.length;
+			}
+		}
+
+
+		synchronized void clear()
+		{
+			mWindow.clear();
+			mProbation.clear();
+			mProtected.clear();
+			mWindowSize = 0;
+			mProbationSize = 0;
+			mProtectedSize = 0;
+		}
+
+
+		synchronized long getHits()
+		{
+			return mHits;
+		}
+
+
+		synchronized long getMisses()
+		{
+			return mMisses;
+		}
+
+
+		/**
+		 * A candidate leaving the window replaces the least recently used blocks of the main segment only if it is estimated to be
+		 * accessed more frequently than the first of them.
+		 */
+		private void admit(Key aKey, byte[] aValue)
+		{
+			if (mProbationSize + mProtectedSize + aValue.length > mMainCapacity)
+			{
+				LinkedHashMap<Key, byte[]> segment = mProbation.isEmpty() ? mProtected : mProbation;
+				Key victim = segment.keySet().iterator().next();
+
+				if (frequency(aKey.hashCode()) <= frequency(victim.hashCode()))
+				{
+					evicted(aKey, aValue);
+					return;
+				}
+
+				while (mProbationSize + mProtectedSize + aValue.length > mMainCapacity)
+				{
+					segment = mProbation.isEmpty() ? mProtected : mProbation;
+					Iterator<Entry<Key, byte[]>> it = segment.entrySet().iterator();
+					Entry<Key, byte[]> entry = it.next();
+					it.remove();
+					if (segment == mProbation)
+					{
+						mProbationSize -= entry.getValue().length;
+					}
+					else
+					{
+						mProtectedSize -= entry.getValue().length;
+					}
+					evicted(entry.getKey(), entry.getValue());
+				}
+			}
+
+			mProbation.put(aKey, aValue);
+			mProbationSize += aValue.length;
+		}
+
+
+		private void evicted(Key aKey, byte[] aValue)
+		{
+			if (mEvictionListener != null)
+			{
+				mEvictionListener.accept(aKey, aValue);
+			}
+		}
+
+
+		private void demote()
+		{
+			for (Iterator<Entry<Key, byte[]>> it = mProtected.entrySet().iterator(); mProtectedSize > mProtectedCapacity && it.hasNext();)
+			{
+				Entry<Key, byte[]> entry = it.next();
+				it.remove();
+				mProtectedSize -= entry.getValue().length;
+				mProbation.put(entry.getKey(), entry.getValue());
+				mProbationSize += entry.getValue().length;
+			}
+		}
+
+
+		private void increment(int aHash)
+		{
+			for (int i = 0; i < SEEDS.length; i++)
+			{
+				int index = indexOf(aHash, i);
+				if (mSketch[index] < 15)
+				{
+					mSketch[index]++;
+				}
+			}
+
+			if (++mAdditions == mSampleSize)
+			{
+				for (int i = 0; i < mSketch.length; i++)
+				{
+					mSketch[i] >>>= 1;
+				}
+				mAdditions /= 2;
+			}
+		}
+
+
+		private int frequency(int aHash)
+		{
+			int frequency = 15;
+			for (int i = 0; i < SEEDS.length; i++)
+			{
+				frequency = Math.min(frequency, mSketch[indexOf(aHash, i)]);
+			}
+			return frequency;
+		}
+
+
+		private int indexOf(int aHash, int aDepth)
+		{
+			int h = aHash * SEEDS[aDepth];
+			h ^= h >>> 16;
+			return aDepth * (mSketchMask + 1) + (h & mSketchMask);
+		}
+	}
+}
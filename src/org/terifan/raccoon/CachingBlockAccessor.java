@@ -0,0 +1,108 @@
+package org.terifan.raccoon;
+
+import org.terifan.raccoon.blockdevice.BlockAccessor;
+import org.terifan.raccoon.blockdevice.BlockPointer;
+import org.terifan.raccoon.blockdevice.BlockType;
+import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
+
+
+/**
+ * A BlockAccessor keeping decompressed blocks in a shared BlockCache. Blocks are keyed by the address and generation of the block.
+ * Leaves and external blocks are only ever decoded so readers share the cached block. Any other block, e.g. interior nodes which
+ * are modified in place, is copied before it is returned.
+ * <p>
+ * When an off-heap cache is configured, blocks evicted from the heap cache are moved to it and moved back on access.
+ */
+final class CachingBlockAccessor extends BlockAccessor
+{
+	private final BlockCache mCache;
+	private final OffHeapBlockCache mOffHeapCache;
+
+
+	CachingBlockAccessor(ManagedBlockDevice aBlockDevice, long aCacheSize, long aOffHeapCacheSize)
+	{
+		super(aBlockDevice, true);
+
+		mOffHeapCache = aOffHeapCacheSize >= OffHeapBlockCache.PAGE_SIZE ? new OffHeapBlockCache(aOffHeapCacheSize) : null;
+		mCache = new BlockCache(aCacheSize, mOffHeapCache == null ? null : mOffHeapCache::put);
+	}
+
+
+	@Override
+	public byte[] readBlock(BlockPointer aBlockPointer)
+	{
+		BlockCache.Key key = keyOf(aBlockPointer);
+
+		byte[] buffer = mCache.get(key);
+
+		if (buffer == null)
+		{
+			if (mOffHeapCache != null)
+			{
+				buffer = mOffHeapCache.remove(key);
+			}
+			if (buffer == null)
+			{
+				buffer = super.readBlock(aBlockPointer);
+			}
+			mCache.put(key, buffer);
+		}
+
+		return isShared(aBlockPointer) ? buffer : buffer.clone();
+	}
+
+
+	@Override
+	public void freeBlock(BlockPointer aBlockPointer)
+	{
+		if (aBlockPointer != null)
+		{
+			BlockCache.Key key = keyOf(aBlockPointer);
+			mCache.remove(key);
+			if (mOffHeapCache != null)
+			{
+				mOffHeapCache.remove(key);
+			}
+		}
+
+		super.freeBlock(aBlockPointer);
+	}
+
+
+	/**
+	 * Discard all cached blocks.
+	 */
+	void clearCache()
+	{
+		mCache.clear();
+		if (mOffHeapCache != null)
+		{
+			mOffHeapCache.clear();
+		}
+	}
+
+
+	/**
+	 * Release the off-heap memory. Must only be called after all readers have finished.
+	 */
+	void releaseCache()
+	{
+		clearCache();
+		if (mOffHeapCache != null)
+		{
+			mOffHeapCache.close();
+		}
+	}
+
+
+	private static boolean isShared(BlockPointer aBlockPointer)
+	{
+		return aBlockPointer.getBlockType() == BlockType.BTREE_LEAF || aBlockPointer.getBlockType() == BlockType.EXTERNAL;
+	}
+
+
+	private static BlockCache.Key keyOf(BlockPointer aBlockPointer)
+	{
+		return new BlockCache.Key(aBlockPointer.getBlockIndex0(), aBlockPointer.getGeneration());
+	}
+}
@@ -0,0 +1,168 @@
+package org.terifan.raccoon;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import org.terifan.raccoon.document.Array;
+import org.terifan.raccoon.document.Document;
+
+
+/**
+ * Replaces the field names of stored documents with short symbols. Each name is assigned the next free id when first written and
+ * the id, in base 36, is stored instead of the name. Field names of nested documents, including documents inside arrays, are
+ * replaced too while the _id field of the top level document is kept since it's stored as the key.
+ * <p>
+ * The table of names is kept in the collection configuration. Ids are never reused so a document can always be decoded with a
+ * later version of the table.
+ */
+final class FieldSymbols
+{
+	private final static String ID = "_id";
+
+	private final Document mTable;
+	private final ConcurrentHashMap<String, String> mSymbols;
+	private volatile String[] mNames;
+
+
+	/**
+	 * @param aTable a document mapping names to ids that is updated when new names are written
+	 */
+	FieldSymbols(Document aTable)
+	{
+		mTable = aTable;
+		mSymbols = new ConcurrentHashMap<>();
+		mNames = new String[aTable.size()];
+
+		for (Entry<String, Object> entry : aTable.entrySet())
+		{
+			int id = ((Number)entry.getValue()).intValue();
+			mNames[id] = entry.getKey();
+			mSymbols.put(entry.getKey(), Integer.toString(id, 36));
+		}
+	}
+
+
+	Document encode(Document aDocument)
+	{
+		return encode(aDocument, true);
+	}
+
+
+	Document decode(Document aDocument)
+	{
+		return decode(aDocument, true);
+	}
+
+
+	private Document encode(Document aDocument, boolean aTopLevel)
+	{
+		Document encoded = new Document();
+
+		for (Entry<String, Object> entry : aDocument.entrySet())
+		{
+			String name = entry.getKey();
+
+			encoded.put(aTopLevel && name.equals(ID) ? name : symbolOf(name), encodeValue(entry.getValue()));
+		}
+
+		return encoded;
+	}
+
+
+	private Object encodeValue(Object aValue)
+	{
+		if (aValue instanceof Document v)
+		{
+			return encode(v, false);
+		}
+		if (aValue instanceof Array v)
+		{
+			Array encoded = new Array();
+			for (Object element : v)
+			{
+				encoded.add(encodeValue(element));
+			}
+			return encoded;
+		}
+		return aValue;
+	}
+
+
+	private Document decode(Document aDocument, boolean aTopLevel)
+	{
+		Document decoded = new Document();
+		String[] names = mNames;
+
+		for (Entry<String, Object> entry : aDocument.entrySet())
+		{
+			String symbol = entry.getKey();
+			Object value = decodeValue(entry.getValue());
+
+			if (aTopLevel && symbol.equals(ID))
+			{
+				decoded.put(symbol, value);
+				continue;
+			}
+
+			int id = Integer.parseInt(symbol, 36);
+			if (id >= names.length)
+			{
+				names = mNames;
+				if (id >= names.length)
+				{
+					throw new IllegalStateException("Field symbol not found: " + symbol);
+				}
+			}
+
+			decoded.put(names[id], value);
+		}
+
+		return decoded;
+	}
+
+
+	private Object decodeValue(Object aValue)
+	{
+		if (aValue instanceof Document v)
+		{
+			return decode(v, false);
+		}
+		if (aValue instanceof Array v)
+		{
+			Array decoded = new Array();
+			for (Object element : v)
+			{
+				decoded.add(decodeValue(element));
+			}
+			return decoded;
+		}
+		return aValue;
+	}
+
+
+	private String symbolOf(String aName)
+	{
+		String symbol = mSymbols.get(aName);
+
+		if (symbol == null)
+		{
+			synchronized (this)
+			{
+				symbol = mSymbols.get(aName);
+
+				if (symbol == null)
+				{
+					int id = mNames.length;
+					String[] names = Arrays.copyOf(mNames, id + 1);
+					names[id] = aName;
+					mTable.put(aName, id);
+					mNames = names;
+					symbol = Integer.toString(id, 36);
+					mSymbols.put(aName, symbol);
+				}
+			}
+		}
+
+		return symbol;
+	}
+}
@@ -0,0 +1,143 @@
+package org.terifan.raccoon;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+
+/**
+ * A second tier below the BlockCache holding blocks evicted from the heap in off-heap memory. The memory is allocated once as a
+ * single segment divided into fixed size pages and a block occupy as many pages as required. The garbage collector is therefore
+ * unaffected by the size of this cache. Blocks are copied back onto the heap when found and the least recently used blocks are
+ * discarded when no free pages remain.
+ */
+final class OffHeapBlockCache implements AutoCloseable
+{
+	final static int PAGE_SIZE = 4096;
+
+	private final Arena mArena;
+	private final MemorySegment mSegment;
+	private final LinkedHashMap<BlockCache.Key, Slot> mEntries;
+	private final int[] mFreePages;
+	private int mFreeCount;
+	private boolean mClosed;
+
+
+	OffHeapBlockCache(long aCapacity)
+	{
+		int pageCount = (int)Math.min(Integer.MAX_VALUE, aCapacity / PAGE_SIZE);
+
+		mArena = Arena.ofShared();
+		mSegment = mArena.allocate((long)pageCount * PAGE_SIZE, PAGE_SIZE);
+		mEntries = new LinkedHashMap<>(16, 0.75f, true);
+		mFreePages = new int[pageCount];
+
+		for (int i = 0; i < pageCount; i++)
+		{
+			mFreePages[mFreeCount++] = pageCount - 1 - i;
+		}
+	}
+
+
+	synchronized void put(BlockCache.Key aKey, byte[] aValue)
+	{
+		int pageCount = (aValue.length + PAGE_SIZE - 1) / PAGE_SIZE;
+
+		if (mClosed || pageCount > mFreePages.length || mEntries.containsKey(aKey))
+		{
+			return;
+		}
+
+		for (Iterator<Entry<BlockCache.Key, Slot>> it = mEntries.entrySet().iterator(); mFreeCount < pageCount;)
+		{
+			Slot slot = it.next().getValue();
+			it.remove();
+			release(slot);
+		}
+
+		Slot slot = new Slot(new int[pageCount], aValue.length);
+
+		for (int i = 0, offset = 0; i < pageCount; i++, offset += PAGE_SIZE)
+		{
+			slot.mPages[i] = mFreePages[--mFreeCount];
+			MemorySegment.copy(aValue, offset, mSegment, ValueLayout.JAVA_BYTE, (long)slot.mPages[i] * PAGE_SIZE, Math.min(PAGE_SIZE, aValue.length - offset));
+		}
+
+		mEntries.put(aKey, slot);
+	}
+
+
+	/**
+	 * Remove a block from the cache returning a copy of it on the heap.
+	 *
+	 * @return the block or null if not found
+	 */
+	synchronized byte[] remove(BlockCache.Key aKey)
+	{
+		Slot slot = mClosed ? null : mEntries.remove(aKey);
+
+		if (slot == null)
+		{
+			return null;
+		}
+
+		byte[] buffer = new byte[slot.mLength];
+
+		for (int i = 0, offset = 0; i < slot.mPages.length; i++, offset += PAGE_SIZE)
+		{
+			MemorySegment.copy(mSegment, ValueLayout.JAVA_BYTE, (long)slot.mPages[i] * PAGE_SIZE, buffer, offset, Math.min(PAGE_SIZE, buffer.length - offset));
+		}
+
+		release(slot);
+
+		return buffer;
+	}
+
+
+	synchronized void clear()
+	{
+		for (Slot slot : mEntries.values())
+		{
+			release(slot);
+		}
+		mEntries.clear();
+	}
+
+
+	@Override
+	public synchronized void close()
+	{
+		if (!mClosed)
+		{
+			mClosed = true;
+			mEntries.clear();
+			mArena.close();
+		}
+	}
+
+
+	private void release(Slot aSlot)
+	{
+		for (int page : aSlot.mPages)
+		{
+			mFreePages[mFreeCount++] = page;
+		}
+	}
+
+
+	private static class Slot
+	{
+		final int[] mPages;
+		final int mLength;
+
+
+		Slot(int[] aPages, int aLength)
+		{
+			mPages = aPages;
+			mLength = aLength;
+		}
+	}
+}
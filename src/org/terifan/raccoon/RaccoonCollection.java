@@ -17,12 +17,15 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -34,19 +37,21 @@ import org.terifan.logging.Logger;
 import org.terifan.raccoon.RuntimeDiagnostics.Operation;
 import org.terifan.raccoon.blockdevice.BlockAccessor;
 import org.terifan.raccoon.blockdevice.BlockPointer;
-import org.terifan.raccoon.blockdevice.BlockType;
-import org.terifan.raccoon.blockdevice.compressor.CompressorAlgorithm;
 import org.terifan.raccoon.btree.BTreeConfiguration;
 import org.terifan.raccoon.btree.BTreeIterator;
 import org.terifan.raccoon.btree.BTreeLeafNode;
 import org.terifan.raccoon.btree.BTreeVisitor;
 import org.terifan.raccoon.btree.ArrayMapEntry;
+import org.terifan.raccoon.btree.ArrayMapEntryView;
 import org.terifan.raccoon.btree.ArrayMapEntry.Type;
 import org.terifan.raccoon.btree.OpState;
 import org.terifan.raccoon.document.Array;
 import org.terifan.raccoon.document.Document;
 import org.terifan.raccoon.exceptions.DatabaseException;
 import org.terifan.raccoon.result.SaveOneResult;
+import org.terifan.raccoon.util.ReadWriteLock;
+import org.terifan.raccoon.util.ReadWriteLock.ReadLock;
+import org.terifan.raccoon.util.SerialExecutor;
 
 // db.getCollection("people").createIndex(Document.of("name:malesByName,unique:false,sparse:true,clone:true,filter:[{gender:{$eq:male}}],fields:[{firstName:1},{lastName:1}]"));
 
@@ -54,24 +59,40 @@ public final class RaccoonCollection implements Iterable<Document>
 {
 	final static Logger log = Logger.getLogger();
 
-	private ExecutorService mExecutor = Executors.newFixedThreadPool(1);
+	private ExecutorService mExecutor;
+	private final ExecutorService mWorkerPool;
+	private final boolean mDirectExecution;
+
+	final ReadWriteLock mLock = new ReadWriteLock();
+	final AtomicInteger mPendingWrites = new AtomicInteger();
+	private final AtomicBoolean mUnpublished = new AtomicBoolean();
 
 	private final BTreeConfiguration mConfiguration;
 	private Supplier<Document> mDocumentSupplier;
 	private Supplier<Object> mKeySupplier;
 	private RaccoonDatabase mDatabase;
 	private BTree mTree;
+	private FieldSymbols mFieldSymbols;
 
 
 	RaccoonCollection(RaccoonDatabase aDatabase, BTreeConfiguration aConfiguration)
 	{
 		mDatabase = aDatabase;
 		mConfiguration = aConfiguration;
+		mWorkerPool = aDatabase.getWorkerPool();
+		mDirectExecution = aDatabase.isDirectExecution();
+		mExecutor = new SerialExecutor(mWorkerPool);
 
 		mDocumentSupplier = () -> new Document();
 		mKeySupplier = () -> ObjectId.randomId();
 
 		mTree = new BTree(getBlockAccessor(), mConfiguration);
+		mTree.setNodeCacheSize(aDatabase.getNodeCacheSize());
+
+		if (mConfiguration.getFieldSymbols() != null)
+		{
+			mFieldSymbols = new FieldSymbols(mConfiguration.getFieldSymbols());
+		}
 	}
 
 
@@ -114,14 +135,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -150,7 +164,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
 	}
 
 
@@ -162,7 +176,7 @@ public final class RaccoonCollection implements Iterable<Document>
 	public Future<Document> findOne(Document aDocument)
 	{
 		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
-		WriteTask task = new WriteTask(this, "findOne")
+		ReadTask task = new ReadTask(this, "findOne")
 		{
 			@Override
 			public void call()
@@ -175,7 +189,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				aDocument.putAll(readExternalEntry(entry));
 			}
 		};
-		return mExecutor.submit(task, aDocument);
+		return submit(task, aDocument);
 	}
 
 
@@ -203,14 +217,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -229,7 +236,7 @@ public final class RaccoonCollection implements Iterable<Document>
 			{
 				createKeys(aDocument);
 
-				ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+				ArrayMapEntry entry = createEntry(aDocument);
 				writeExternalEntry(entry);
 				mTree.put(entry);
 				if (entry.getState() == OpState.UPDATE)
@@ -243,7 +250,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
 	}
 
 
@@ -275,7 +282,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				{
 					createKeys(document);
 
-					ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(document);
+					ArrayMapEntry entry = createEntry(document);
 					writeExternalEntry(entry);
 					mTree.put(entry);
 					if (entry.getState() == OpState.UPDATE)
@@ -293,7 +300,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
 	}
 
 
@@ -304,7 +311,7 @@ public final class RaccoonCollection implements Iterable<Document>
 	 */
 	public Future<Document> insertOne(Document aDocument)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+		ArrayMapEntry entry = createEntry(aDocument);
 		WriteTask task = new WriteTask(this, "insertOne")
 		{
 			@Override
@@ -323,7 +330,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, aDocument);
+		return submit(task, aDocument);
 	}
 
 
@@ -353,7 +360,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				ArrayList<ArrayMapEntry> entries = new ArrayList<>();
 				for (Document document : aDocuments)
 				{
-					ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(document);
+					ArrayMapEntry entry = createEntry(document);
 					mTree.get(entry);
 					if (entry.getState() == OpState.NO_MATCH)
 					{
@@ -367,7 +374,54 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, aDocuments);
+		return submit(task, aDocuments);
+	}
+
+
+	/**
+	 * Load documents into an empty collection. The documents must be provided in ascending order of their keys and the tree is
+	 * built bottom-up with full nodes, which is much faster than inserting the documents one by one. Documents without a key are
+	 * assigned one by the key supplier.
+	 *
+	 * @return the number of documents loaded
+	 */
+	public Future<AtomicLong> bulkLoad(Stream<Document> aDocuments)
+	{
+		AtomicLong result = new AtomicLong();
+		WriteTask task = new WriteTask(this, "bulkLoad")
+		{
+			@Override
+			public void call()
+			{
+				ArrayList<ArrayMapEntry> external = new ArrayList<>();
+				Iterator<ArrayMapEntry> entries = aDocuments.map(document ->
+				{
+					createKeys(document);
+
+					ArrayMapEntry entry = createEntry(document);
+					writeExternalEntry(entry);
+					if (entry.getValueType() == Type.BLOCKPOINTER)
+					{
+						external.add(entry);
+					}
+					return entry;
+				}).iterator();
+
+				try
+				{
+					result.set(mTree.bulkLoad(entries));
+				}
+				catch (RuntimeException e)
+				{
+					for (ArrayMapEntry entry : external)
+					{
+						deleteExternal(entry, false);
+					}
+					throw e;
+				}
+			}
+		};
+		return submit(task, result);
 	}
 
 
@@ -378,10 +432,10 @@ public final class RaccoonCollection implements Iterable<Document>
 	 */
 	public boolean tryInsertOne(Document aDocument)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+		ArrayMapEntry entry = createEntry(aDocument);
 		ArrayMapEntry existing = new ArrayMapEntry().setKey(entry.getKey(), entry.getKeyType());
 		AtomicBoolean result = new AtomicBoolean(false);
-		ReadTask task = new ReadTask(this, "tryInsertOne")
+		WriteTask task = new WriteTask(this, "tryInsertOne")
 		{
 			@Override
 			public void call()
@@ -395,14 +449,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -413,11 +460,11 @@ public final class RaccoonCollection implements Iterable<Document>
 	 */
 	public boolean tryInsertOne(Document aDocument, Document aExisting)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+		ArrayMapEntry entry = createEntry(aDocument);
 		ArrayMapEntry existing = new ArrayMapEntry().setKey(entry.getKey(), entry.getKeyType());
 
 		AtomicBoolean result = new AtomicBoolean(false);
-		ReadTask task = new ReadTask(this, "tryInsertOne")
+		WriteTask task = new WriteTask(this, "tryInsertOne")
 		{
 			@Override
 			public void call()
@@ -435,14 +482,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -453,7 +493,7 @@ public final class RaccoonCollection implements Iterable<Document>
 	 */
 	public Future<Document> replaceOne(Document aDocument) throws DocumentNotFoundException
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+		ArrayMapEntry entry = createEntry(aDocument);
 		WriteTask task = new WriteTask(this, "replaceOne")
 		{
 			@Override
@@ -469,7 +509,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				deleteIndexEntries(deleteExternal(entry, true));
 			}
 		};
-		return mExecutor.submit(task, aDocument);
+		return submit(task, aDocument);
 	}
 
 
@@ -480,7 +520,7 @@ public final class RaccoonCollection implements Iterable<Document>
 	 */
 	public boolean tryReplaceOne(Document aDocument)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(aDocument);
+		ArrayMapEntry entry = createEntry(aDocument);
 
 		AtomicBoolean result = new AtomicBoolean(true);
 		WriteTask task = new WriteTask(this, "tryReplaceOne")
@@ -502,14 +542,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				result.set(entry.getState() == OpState.UPDATE);
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -539,7 +572,7 @@ public final class RaccoonCollection implements Iterable<Document>
 			{
 				for (Document document : aDocuments)
 				{
-					ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(document);
+					ArrayMapEntry entry = createEntry(document);
 					writeExternalEntry(entry);
 					mTree.put(entry);
 					if (entry.getState() == OpState.UPDATE)
@@ -553,14 +586,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -590,7 +616,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				ArrayList<ArrayMapEntry> entries = new ArrayList<>();
 				for (Document document : aDocuments)
 				{
-					ArrayMapEntry entry = new ArrayMapEntry().setKeyAndValue(document);
+					ArrayMapEntry entry = createEntry(document);
 					mTree.get(entry);
 					if (entry.getState() == OpState.NO_MATCH)
 					{
@@ -606,7 +632,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, aDocuments);
+		return submit(task, aDocuments);
 	}
 
 
@@ -631,7 +657,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				deleteIndexEntries(deleteExternal(entry, true));
 			}
 		};
-		return mExecutor.submit(task, aDocument);
+		return submit(task, aDocument);
 	}
 
 
@@ -668,7 +694,7 @@ public final class RaccoonCollection implements Iterable<Document>
 						Document prevDoc = deleteExternal(entry, true);
 						if (prevDoc != null)
 						{
-							deleteIndexEntries(entry.getValueInstance());
+							deleteIndexEntries(decodeFields(entry.getValueInstance()));
 						}
 					}
 					else
@@ -678,14 +704,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (InterruptedException | ExecutionException e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -711,14 +730,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		try
-		{
-			return mExecutor.submit(task, result).get().get();
-		}
-		catch (Exception e)
-		{
-			throw new DatabaseException(e);
-		}
+		return execute(task, result).get();
 	}
 
 
@@ -743,14 +755,14 @@ public final class RaccoonCollection implements Iterable<Document>
 					Document prevDoc = deleteExternal(entry, true);
 					if (prevDoc == null)
 					{
-						prevDoc = entry.getValueInstance();
+						prevDoc = decodeFields(entry.getValueInstance());
 					}
 					aDocument.clear().putAll(prevDoc);
 					deleteIndexEntries(prevDoc);
 				}
 			}
 		};
-		return mExecutor.submit(task, aDocument);
+		return submit(task, aDocument);
 	}
 
 
@@ -795,7 +807,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 			}
 		};
-		return mExecutor.submit(task, aDocuments);
+		return submit(task, aDocuments);
 	}
 
 
@@ -816,13 +828,13 @@ public final class RaccoonCollection implements Iterable<Document>
 					@Override
 					public boolean leaf(BTreeLeafNode aNode)
 					{
-						aNode.forEachEntry(e -> result.add(readExternalEntry(e)));
+						aNode.forEachView(e -> result.add(readExternalEntry(e)));
 						return true;
 					}
 				});
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
 	}
 
 
@@ -886,7 +898,20 @@ public final class RaccoonCollection implements Iterable<Document>
 				result.set(mTree.size());
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
+	}
+
+
+	/**
+	 * Open a read-only view of this collection as it was at the last commit. Reads from the snapshot run on the calling thread
+	 * without using the collection executor and are not affected by concurrent writes. Blocks released by later commits are
+	 * retained until the snapshot is closed.
+	 *
+	 * @return a snapshot that must be closed when no longer used
+	 */
+	public RaccoonSnapshot snapshot()
+	{
+		return new RaccoonSnapshot(this, mTree.snapshot());
 	}
 
 
@@ -917,6 +942,13 @@ public final class RaccoonCollection implements Iterable<Document>
 //			{
 //				return unmarshalDocument(aEntry);
 //			}
+			@Override
+			protected Document unmarshal(ArrayMapEntryView aEntry)
+			{
+				return decodeFields(super.unmarshal(aEntry));
+			}
+
+
 			@Override
 			protected void remove(ArrayMapEntry aEntry)
 			{
@@ -952,6 +984,13 @@ public final class RaccoonCollection implements Iterable<Document>
 //			{
 //				return mDocumentSupplier.get().put("_id", aEntry.getKey().get());
 //			}
+			@Override
+			protected Document unmarshal(ArrayMapEntryView aEntry)
+			{
+				return decodeFields(super.unmarshal(aEntry));
+			}
+
+
 			@Override
 			protected void remove(ArrayMapEntry aEntry)
 			{
@@ -1005,7 +1044,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				mTree = null;
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
 	}
 
 
@@ -1033,6 +1072,10 @@ public final class RaccoonCollection implements Iterable<Document>
 
 	public Future<String> flush()
 	{
+		if (isIdle(false))
+		{
+			return CompletableFuture.completedFuture("flush");
+		}
 		WriteTask task = new WriteTask(this, "flush")
 		{
 			@Override
@@ -1041,7 +1084,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				mTree.flush();
 			}
 		};
-		return mExecutor.submit(task, "flush");
+		return submit(task, "flush");
 	}
 
 
@@ -1055,38 +1098,162 @@ public final class RaccoonCollection implements Iterable<Document>
 				mTree.rollback();
 			}
 		};
-		return mExecutor.submit(task, "rollback");
+		return submit(task, "rollback");
 	}
 
 
 	/**
-	 * Commit changes to the block device returning a summary of changes.
+	 * Commit changes to the block device returning a summary of changes. The new root is published to the database root by the
+	 * next database commit.
 	 *
 	 * @return a summary of changes
 	 */
 	public Future<CommitResult> commit()
 	{
-		return commit(() ->
-		{
-		});
+		return commit(() -> mUnpublished.set(true));
 	}
 
 
+	/**
+	 * Commit the tree and run the action if the tree was modified by this commit or by an earlier commit that was never published.
+	 */
 	Future<CommitResult> commit(Runnable aOnModifiedAction)
 	{
 		CommitResult result = new CommitResult();
+		if (isIdle(true))
+		{
+			if (mUnpublished.getAndSet(false))
+			{
+				aOnModifiedAction.run();
+			}
+			return CompletableFuture.completedFuture(result);
+		}
 		WriteTask task = new WriteTask(this, "commit")
 		{
 			@Override
 			public void call()
 			{
-				if (mTree.commit())
+				if (mTree.commit() | mUnpublished.getAndSet(false))
 				{
 					aOnModifiedAction.run();
 				}
 			}
 		};
-		return mExecutor.submit(task, result);
+		return submit(task, result);
+	}
+
+
+	/**
+	 * Return true if no writes are queued and the tree has nothing to flush, or when aCommit is set, nothing to commit. The tree
+	 * is read under the collection read lock since the write path updates it without any other synchronization. A dropped or
+	 * closed collection is never idle so the request is queued as before.
+	 */
+	private boolean isIdle(boolean aCommit)
+	{
+		if (mPendingWrites.get() > 0)
+		{
+			return false;
+		}
+
+		try (ReadLock lock = mLock.readLock())
+		{
+			BTree tree = mTree;
+			return tree != null && !(aCommit ? tree.isChanged() : tree.isFlushRequired());
+		}
+	}
+
+
+	/**
+	 * Read tasks run on the shared database worker pool under the collection read lock. If any write is still queued the read is
+	 * placed behind it on the collection executor to guarantee that reads always observe writes submitted before them.
+	 */
+	private <T> Future<T> submit(ReadTask aTask, T aResult)
+	{
+		if (mPendingWrites.get() > 0)
+		{
+			return mExecutor.submit(aTask, aResult);
+		}
+
+		return mWorkerPool.submit(aTask, aResult);
+	}
+
+
+	/**
+	 * Queue a write on the collection executor. The pending write is released if the executor refuse the task, either at once or
+	 * later by cancelling it while still queued.
+	 */
+	private <T> Future<T> submit(WriteTask aTask, T aResult)
+	{
+		mPendingWrites.incrementAndGet();
+
+		FutureTask<T> future = new FutureTask<>(aTask, aResult)
+		{
+			@Override
+			protected void done()
+			{
+				if (isCancelled())
+				{
+					aTask.release();
+				}
+			}
+		};
+
+		try
+		{
+			mExecutor.execute(future);
+		}
+		catch (RejectedExecutionException e)
+		{
+			aTask.release();
+			throw e;
+		}
+
+		return future;
+	}
+
+
+	/**
+	 * Execute a read task and wait for it to complete. In direct execution mode the task run on the calling thread unless writes
+	 * are queued.
+	 */
+	private <T> T execute(ReadTask aTask, T aResult)
+	{
+		if (mDirectExecution && mPendingWrites.get() == 0)
+		{
+			aTask.run();
+			return aResult;
+		}
+
+		return await(submit(aTask, aResult));
+	}
+
+
+	/**
+	 * Execute a write task and wait for it to complete. In direct execution mode the task run on the calling thread unless other
+	 * writes are queued.
+	 */
+	private <T> T execute(WriteTask aTask, T aResult)
+	{
+		if (mDirectExecution && mPendingWrites.compareAndSet(0, 1))
+		{
+			aTask.run();
+			return aResult;
+		}
+
+		return await(submit(aTask, aResult));
+	}
+
+
+	private static <T> T await(Future<T> aFuture)
+	{
+		try
+		{
+			return aFuture.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new DatabaseException(e);
+		}
 	}
 
 
@@ -1104,7 +1271,7 @@ public final class RaccoonCollection implements Iterable<Document>
 
 	BlockAccessor getBlockAccessor()
 	{
-		return new BlockAccessor(mDatabase.getBlockDevice(), true);
+		return mDatabase.getBlockAccessor();
 	}
 
 
@@ -1366,7 +1533,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				}
 
 				RuntimeDiagnostics.collectStatistics(Operation.FREE_EXT, 1);
-				mDatabase.getBlockAccessor().freeBlock(bp);
+				mTree.freeBlock(bp);
 			}
 			else
 			{
@@ -1374,11 +1541,11 @@ public final class RaccoonCollection implements Iterable<Document>
 			}
 		}
 
-		return prev;
+		return decodeFields(prev);
 	}
 
 
-	private Document readExternalEntry(ArrayMapEntry aEntry)
+	Document readExternalEntry(ArrayMapEntry aEntry)
 	{
 		Document prev = null;
 
@@ -1395,7 +1562,40 @@ public final class RaccoonCollection implements Iterable<Document>
 			}
 		}
 
-		return prev;
+		return decodeFields(prev);
+	}
+
+
+	/**
+	 * Decode the entry directly from the leaf buffer without copying the key and value.
+	 */
+	Document readExternalEntry(ArrayMapEntryView aEntry)
+	{
+		if (aEntry.getValueType() == Type.BLOCKPOINTER)
+		{
+			RuntimeDiagnostics.collectStatistics(Operation.READ_EXT, 1);
+			return decodeFields(mDocumentSupplier.get().fromByteArray(mDatabase.getBlockAccessor().readBlock(aEntry.getValueBlockPointer())));
+		}
+
+		return decodeFields(aEntry.getInstance(new Document()));
+	}
+
+
+	/**
+	 * Create an entry storing the document, replacing field names with symbols if enabled for this collection.
+	 */
+	private ArrayMapEntry createEntry(Document aDocument)
+	{
+		return new ArrayMapEntry().setKeyAndValue(mFieldSymbols == null ? aDocument : mFieldSymbols.encode(aDocument));
+	}
+
+
+	/**
+	 * Restore the field names of a document read from this collection.
+	 */
+	Document decodeFields(Document aDocument)
+	{
+		return mFieldSymbols == null || aDocument == null ? aDocument : mFieldSymbols.decode(aDocument);
 	}
 
 
@@ -1404,7 +1604,7 @@ public final class RaccoonCollection implements Iterable<Document>
 		if (aEntry.getMarshalledLength() > mTree.getConfiguration().getLimitEntrySize())
 		{
 			RuntimeDiagnostics.collectStatistics(Operation.WRITE_EXT, 1);
-			aEntry.setValueInstance(mDatabase.getBlockAccessor().writeBlock(aEntry.getValue(), BlockType.EXTERNAL, 0, CompressorAlgorithm.LZJB.ordinal()));
+			aEntry.setValueInstance(mTree.writeExternalBlock(aEntry.getValue()));
 		}
 	}
 
@@ -1419,7 +1619,7 @@ public final class RaccoonCollection implements Iterable<Document>
 				mTree.printTree();
 			}
 		};
-		return mExecutor.submit(task, null);
+		return submit(task, null);
 	}
 
 
@@ -10,13 +10,16 @@ import java.util.List;
 import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import org.terifan.raccoon.blockdevice.BlockAccessor;
 import org.terifan.raccoon.blockdevice.lob.LobOpenOption;
@@ -30,6 +33,7 @@ import org.terifan.raccoon.util.Assert;
 import org.terifan.raccoon.btree.BTreeConfiguration;
 import org.terifan.raccoon.document.Array;
 import org.terifan.raccoon.util.FutureQueue;
+import org.terifan.raccoon.util.SerialExecutor;
 
 // createCollection - samma som getcollection
 // insert - skapar alltid ett nytt _id
@@ -41,18 +45,21 @@ public final class RaccoonDatabase implements AutoCloseable
 	private final static Logger log = Logger.getLogger();
 
 	private final static String TENANT = "tenant";
-	private final static String VERSION = "RaccoonDatabase.1";
+	private final static String VERSION = "RaccoonDatabase.2";
 	private final static String DIRECTORY = "dir";
 	private final static String INTERNAL_PREFIX = "$";
 	private final static String LOB_COLLECTION = "$lob.";
 	private final static String MAP_COLLECTION = "$maps";
 	private final static String INDEX_COLLECTION = "$indices";
 	private final static String HEAP_COLLECTION = "$heaps";
+	private final static String PARTITIONS_PREFIX = "$partitions.";
+	private final static String PARTITION_PREFIX = "$partition.";
 
 	private ManagedBlockDevice mBlockDevice;
 	private DatabaseRoot mDatabaseRoot;
 	private DatabaseOpenOption mDatabaseOpenOption;
 	private ConcurrentSkipListMap<String, RaccoonCollection> mCollectionInstances;
+	private ConcurrentSkipListMap<String, RaccoonPartitionedCollection> mPartitionedInstances;
 	private ConcurrentSkipListMap<String, RaccoonMap> mMapInstances;
 	private RaccoonCollection mMapCollection;
 	private ConcurrentHashMap<String, RaccoonHeap> mHeapInstances;
@@ -62,43 +69,55 @@ public final class RaccoonDatabase implements AutoCloseable
 	private boolean mShutdownHookEnabled;
 	private Thread mShutdownHook;
 	private Timer mMaintenanceTimer;
+	private ExecutorService mWorkerPool;
 	private ExecutorService mExecutor;
+	private boolean mDirectExecution;
+	private long mNodeCacheSize;
+	private CachingBlockAccessor mBlockAccessor;
+	private final AtomicReference<CompletableFuture<Document>> mPendingCommit = new AtomicReference<>();
 
 	HashMap<Array, Document> mIndices;
 
 
 	public RaccoonDatabase(RaccoonStorageInstance aDevice, DatabaseOpenOption aOpenOption)
+	{
+		this(aDevice, aOpenOption, new RaccoonDatabaseProvider(aDevice));
+	}
+
+
+	RaccoonDatabase(RaccoonStorageInstance aDevice, DatabaseOpenOption aOpenOption, RaccoonDatabaseProvider aProvider)
 	{
 		ManagedBlockDevice blockDevice = aDevice.open(aOpenOption.toBlockDeviceOpenOption());
 
-		init(blockDevice, aOpenOption);
+		init(blockDevice, aOpenOption, aProvider);
 	}
 
 
 	public RaccoonDatabase(ManagedBlockDevice aBlockDevice, DatabaseOpenOption aOpenOption)
 	{
-		init(aBlockDevice, aOpenOption);
+		init(aBlockDevice, aOpenOption, new RaccoonDatabaseProvider(null));
 	}
 
 
-	private void init(ManagedBlockDevice aBlockDevice, DatabaseOpenOption aOpenOption)
+	private void init(ManagedBlockDevice aBlockDevice, DatabaseOpenOption aOpenOption, RaccoonDatabaseProvider aProvider)
 	{
 		aBlockDevice.open(aOpenOption.toBlockDeviceOpenOption());
 
+		mDirectExecution = aProvider.isDirectExecution();
+		mNodeCacheSize = aProvider.getNodeCacheSize();
+		mBlockAccessor = new CachingBlockAccessor(aBlockDevice, aProvider.getBlockCacheSize(), aProvider.getOffHeapCacheSize());
+
 		mIndices = new HashMap<>();
 		mCollectionInstances = new ConcurrentSkipListMap<>();
+		mPartitionedInstances = new ConcurrentSkipListMap<>();
 		mHeapInstances = new ConcurrentHashMap<>();
 		mMapInstances = new ConcurrentSkipListMap<>();
 		mDatabaseStatusListener = new ArrayList<>();
 		mShutdownHookEnabled = true;
 		mDatabaseOpenOption = aOpenOption;
 
-		mExecutor = Executors.newFixedThreadPool(1, runnable ->
-		{
-			Thread thread = new Thread(runnable);
-			thread.setDaemon(true);
-			return thread;
-		});
+		mWorkerPool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("raccoon-worker-", 0).factory());
+		mExecutor = new SerialExecutor(mWorkerPool);
 
 		Assert.assertFalse((aOpenOption == DatabaseOpenOption.READ_ONLY || aOpenOption == DatabaseOpenOption.OPEN) && aBlockDevice.size() == 0, "Block device is empty.");
 
@@ -274,6 +293,38 @@ public final class RaccoonDatabase implements AutoCloseable
 	}
 
 
+	/**
+	 * Create a collection with storage options different from the defaults. The options are stored with the collection and used
+	 * whenever it's opened. See BTreeConfiguration.fromOptions for supported options.
+	 * <pre>
+	 *    db.createCollection("log", new Document().put("leafSize", 65536).put("leafCompressor", "DEFLATE_DEFAULT"));
+	 * </pre>
+	 *
+	 * @throws DatabaseException if the collection already exists
+	 * @throws IllegalArgumentException if an option is unknown or has an illegal value
+	 */
+	public synchronized RaccoonCollection createCollection(String aName, Document aOptions)
+	{
+		if (aName.startsWith(INTERNAL_PREFIX))
+		{
+			throw new IllegalArgumentException("Collection names cannot start with dollar sign.");
+		}
+
+		checkOpen();
+
+		if (mDatabaseOpenOption == DatabaseOpenOption.READ_ONLY)
+		{
+			throw new DatabaseException("Database is read-only");
+		}
+		if (mCollectionInstances.containsKey(aName) || mDatabaseRoot.exists(aName))
+		{
+			throw new DatabaseException("Collection already exists: " + aName);
+		}
+
+		return createCollectionImpl(aName, BTreeConfiguration.fromOptions(aOptions));
+	}
+
+
 	private synchronized RaccoonCollection getCollectionImpl(String aName, boolean aCreateMissing)
 	{
 		checkOpen();
@@ -302,12 +353,20 @@ public final class RaccoonDatabase implements AutoCloseable
 			throw new DatabaseException("No such collection: " + aName);
 		}
 
+		return createCollectionImpl(aName, new BTreeConfiguration());
+	}
+
+
+	private synchronized RaccoonCollection createCollectionImpl(String aName, BTreeConfiguration aConfiguration)
+	{
 		log.i("create table {} with option {}", aName, mDatabaseOpenOption);
 		log.inc();
 
+		RaccoonCollection instance;
+
 		try
 		{
-			conf = new BTreeConfiguration().put("_id", ObjectId.randomId());
+			BTreeConfiguration conf = aConfiguration.put("_id", ObjectId.randomId());
 			instance = new RaccoonCollection(this, conf);
 			mDatabaseRoot.put(aName, conf);
 			mCollectionInstances.put(aName, instance);
@@ -321,6 +380,89 @@ public final class RaccoonDatabase implements AutoCloseable
 	}
 
 
+	/**
+	 * Return an existing partitioned collection.
+	 *
+	 * @return the collection or null if it doesn't exist
+	 */
+	public synchronized RaccoonPartitionedCollection getPartitionedCollection(String aName)
+	{
+		return getPartitionedCollection(aName, 0);
+	}
+
+
+	/**
+	 * Return a collection spread over a number of partitions, creating it if missing. The number of partitions is fixed when the
+	 * collection is created and an existing collection must be opened with the same number of partitions or zero.
+	 *
+	 * @param aPartitions number of partitions, or zero to open an existing collection
+	 * @return the collection or null if it doesn't exist and aPartitions is zero
+	 */
+	public synchronized RaccoonPartitionedCollection getPartitionedCollection(String aName, int aPartitions)
+	{
+		if (aName.startsWith(INTERNAL_PREFIX))
+		{
+			throw new IllegalArgumentException("Collection names cannot start with dollar sign.");
+		}
+		if (aPartitions < 0)
+		{
+			throw new IllegalArgumentException("Number of partitions must be positive: " + aPartitions);
+		}
+
+		checkOpen();
+
+		RaccoonPartitionedCollection instance = mPartitionedInstances.get(aName);
+
+		if (instance == null)
+		{
+			int count;
+			BTreeConfiguration conf = mDatabaseRoot.get(PARTITIONS_PREFIX + aName);
+			if (conf != null)
+			{
+				count = conf.getInt("partitions");
+			}
+			else if (aPartitions == 0)
+			{
+				return null;
+			}
+			else if (mDatabaseOpenOption == DatabaseOpenOption.READ_ONLY)
+			{
+				throw new DatabaseException("No such collection: " + aName);
+			}
+			else
+			{
+				count = aPartitions;
+				mDatabaseRoot.put(PARTITIONS_PREFIX + aName, new Document().put("partitions", count));
+				mModified = true;
+			}
+
+			RaccoonCollection[] partitions = new RaccoonCollection[count];
+			for (int i = 0; i < count; i++)
+			{
+				partitions[i] = getCollectionImpl(PARTITION_PREFIX + i + "." + aName, true);
+			}
+
+			instance = new RaccoonPartitionedCollection(this, aName, partitions);
+			mPartitionedInstances.put(aName, instance);
+		}
+
+		if (aPartitions != 0 && aPartitions != instance.getPartitionCount())
+		{
+			throw new IllegalArgumentException("Collection " + aName + " exists with " + instance.getPartitionCount() + " partitions.");
+		}
+
+		return instance;
+	}
+
+
+	synchronized void removePartitionedCollectionImpl(String aName)
+	{
+		mPartitionedInstances.remove(aName);
+		mDatabaseRoot.remove(PARTITIONS_PREFIX + aName);
+		mModified = true;
+	}
+
+
 	void removeCollectionImpl(RaccoonCollection aCollection) throws IOException, InterruptedException, ExecutionException
 	{
 		for (Document indexConf : mIndices.values())
@@ -375,6 +517,7 @@ public final class RaccoonDatabase implements AutoCloseable
 		if (mMapCollection.tryFindOne(doc))
 		{
 			map.putAll(doc.getDocument("value"));
+			map.markPersisted();
 		}
 
 		mMapInstances.put(aName, map);
@@ -490,20 +633,47 @@ public final class RaccoonDatabase implements AutoCloseable
 
 	/**
 	 * Persists all pending changes. It's necessary to commit changes on a regular basis to avoid data loss.
+	 * <p>
+	 * Calls made while a commit is waiting to start join that commit and share its future. A call made after the commit has started
+	 * is queued for the next one.
 	 */
 	public Future<Document> commit()
 	{
 		checkOpen();
-		Document result = new Document();
+		CompletableFuture<Document> result = new CompletableFuture<>();
+		CompletableFuture<Document> pending = mPendingCommit.compareAndExchange(null, result);
+		if (pending != null)
+		{
+			return pending;
+		}
 		Task task = new Task(this, "commit")
 		{
 			@Override
 			public void call()
 			{
-				commitImpl();
+				mPendingCommit.compareAndSet(result, null);
+				try
+				{
+					commitImpl();
+					result.complete(new Document());
+				}
+				catch (Exception | Error e)
+				{
+					result.completeExceptionally(e);
+					throw e;
+				}
 			}
 		};
-		return mExecutor.submit(task, result);
+		try
+		{
+			mExecutor.execute(task);
+		}
+		catch (RejectedExecutionException e)
+		{
+			mPendingCommit.compareAndSet(result, null);
+			result.completeExceptionally(e);
+		}
+		return result;
 	}
 
 
@@ -535,18 +705,20 @@ public final class RaccoonDatabase implements AutoCloseable
 		{
 			for (Entry<String, RaccoonMap> entry : mMapInstances.entrySet())
 			{
-				try
+				if (entry.getValue().isChanged())
 				{
-					Document doc = new Document().put("_id", entry.getKey()).put("value", entry.getValue());
-					mMapCollection.saveOne(doc).get();
-				}
-				catch (InterruptedException | ExecutionException e)
-				{
-					e.printStackTrace(System.err);
+					try
+					{
+						Document doc = new Document().put("_id", entry.getKey()).put("value", entry.getValue());
+						mMapCollection.saveOne(doc).get();
+						entry.getValue().markPersisted();
+					}
+					catch (InterruptedException | ExecutionException e)
+					{
+						e.printStackTrace(System.err);
+					}
 				}
 			}
-
-			mMapCollection.commit();
 		}
 
 		try (FutureQueue queue = new FutureQueue()) // FutureQueue blocks until all futures have been executed
@@ -610,6 +782,7 @@ public final class RaccoonDatabase implements AutoCloseable
 
 			mDatabaseRoot = new DatabaseRoot(mBlockDevice, new BTreeConfiguration(mBlockDevice.getMetadata().getDocument(DIRECTORY)));
 			mBlockDevice.rollback();
+			mBlockAccessor.clearCache();
 		}
 		catch (Exception e)
 		{
@@ -688,6 +861,7 @@ public final class RaccoonDatabase implements AutoCloseable
 
 					mCollectionInstances.clear();
 					mCollectionInstances = null;
+					mPartitionedInstances.clear();
 
 					mDatabaseRoot.commit(mBlockDevice);
 					mDatabaseRoot = null;
@@ -706,12 +880,42 @@ public final class RaccoonDatabase implements AutoCloseable
 				{
 					throw new IllegalStateException(e);
 				}
+				finally
+				{
+					mWorkerPool.shutdown();
+					mBlockAccessor.releaseCache();
+				}
 			}
 		};
 		mExecutor.submit(task, result).get();
 	}
 
 
+	/**
+	 * Shared pool executing the tasks of the database and all collections. Each collection maintain a serial queue on top of this
+	 * pool for its write operations while read operations are executed directly on the pool.
+	 */
+	ExecutorService getWorkerPool()
+	{
+		return mWorkerPool;
+	}
+
+
+	/**
+	 * Return true if blocking collection methods execute on the calling thread.
+	 */
+	boolean isDirectExecution()
+	{
+		return mDirectExecution;
+	}
+
+
+	long getNodeCacheSize()
+	{
+		return mNodeCacheSize;
+	}
+
+
 	ManagedBlockDevice getBlockDevice()
 	{
 		return mBlockDevice;
@@ -752,7 +956,7 @@ public final class RaccoonDatabase implements AutoCloseable
 
 	BlockAccessor getBlockAccessor()
 	{
-		return new BlockAccessor(getBlockDevice(), true);
+		return mBlockAccessor;
 	}
 
 
@@ -9,6 +9,10 @@ public class RaccoonDatabaseProvider
 	private RaccoonStorageInstance mDevice;
 	private int mFlushInterval;
 	private Level mLoggingLevel;
+	private boolean mDirectExecution;
+	private long mNodeCacheSize;
+	private long mBlockCacheSize;
+	private long mOffHeapCacheSize;
 
 
 	public RaccoonDatabaseProvider(RaccoonStorageInstance aDevice)
@@ -17,6 +21,8 @@ public class RaccoonDatabaseProvider
 
 		mFlushInterval = 1000;
 		mLoggingLevel = Level.FATAL;
+		mNodeCacheSize = 16 * 1024 * 1024;
+		mBlockCacheSize = 64 * 1024 * 1024;
 	}
 
 
@@ -34,7 +40,7 @@ public class RaccoonDatabaseProvider
 	 */
 	public RaccoonDatabase get(DatabaseOpenOption aOption)
 	{
-		return new RaccoonDatabase(mDevice, aOption);
+		return new RaccoonDatabase(mDevice, aOption, this);
 	}
 
 
@@ -50,4 +56,85 @@ public class RaccoonDatabaseProvider
 		mFlushInterval = aInterval;
 		return this;
 	}
+
+
+	/**
+	 * Blocking collection methods (tryFindOne, tryInsertOne, tryDeleteMany, tryReplaceMany etc.) execute on the calling thread
+	 * under the collection lock instead of being handed off to the worker pool. This is intended for applications calling the
+	 * database from virtual threads. Default false.
+	 */
+	public RaccoonDatabaseProvider withDirectExecution(boolean aDirectExecution)
+	{
+		mDirectExecution = aDirectExecution;
+		return this;
+	}
+
+
+	boolean isDirectExecution()
+	{
+		return mDirectExecution;
+	}
+
+
+	/**
+	 * Maximum number of bytes of tree nodes each collection keeps in memory. Clean nodes exceeding the budget are evicted and reloaded
+	 * from the block device on demand. Default 16 MiB.
+	 */
+	public RaccoonDatabaseProvider withNodeCacheSize(long aNodeCacheSize)
+	{
+		if (aNodeCacheSize < 0)
+		{
+			throw new IllegalArgumentException("Illegal node cache size: " + aNodeCacheSize);
+		}
+		mNodeCacheSize = aNodeCacheSize;
+		return this;
+	}
+
+
+	long getNodeCacheSize()
+	{
+		return mNodeCacheSize;
+	}
+
+
+	/**
+	 * Maximum number of bytes of decompressed blocks cached by the database. The cache is shared by all collections, directories and
+	 * heaps. Default 64 MiB.
+	 */
+	public RaccoonDatabaseProvider withBlockCacheSize(long aBlockCacheSize)
+	{
+		if (aBlockCacheSize < 0)
+		{
+			throw new IllegalArgumentException("Illegal block cache size: " + aBlockCacheSize);
+		}
+		mBlockCacheSize = aBlockCacheSize;
+		return this;
+	}
+
+
+	long getBlockCacheSize()
+	{
+		return mBlockCacheSize;
+	}
+
+
+	/**
+	 * Maximum number of bytes of off-heap memory used to hold blocks evicted from the block cache. The memory is allocated when the
+	 * database is opened and released when closed. Default 0 (disabled).
+	 */
+	public RaccoonDatabaseProvider withOffHeapCacheSize(long aOffHeapCacheSize)
+	{
+		if (aOffHeapCacheSize < 0)
+		{
+			throw new IllegalArgumentException("Illegal off-heap cache size: " + aOffHeapCacheSize);
+		}
+		mOffHeapCacheSize = aOffHeapCacheSize;
+		return this;
+	}
+
+
+	long getOffHeapCacheSize()
+	{
+		return mOffHeapCacheSize;
+	}
 }
@@ -7,6 +7,7 @@ class RaccoonMap extends Document implements AutoCloseable
 {
 	private RaccoonDatabase mDatabase;
 	private String mName;
+	private volatile boolean mChanged;
 
 
 	RaccoonMap(RaccoonDatabase aDatabase, String aName)
@@ -21,6 +22,46 @@ class RaccoonMap extends Document implements AutoCloseable
 	}
 
 
+	@Override
+	public Document put(String aKey, Object aValue)
+	{
+		mChanged = true;
+		return super.put(aKey, aValue);
+	}
+
+
+	@Override
+	public Document putAll(Document aSource)
+	{
+		mChanged = true;
+		return super.putAll(aSource);
+	}
+
+
+	@Override
+	public Object remove(String aKey)
+	{
+		mChanged = true;
+		return super.remove(aKey);
+	}
+
+
+	/**
+	 * Return true if a value has been put or removed since the map was last persisted. Changes made inside nested documents are
+	 * not tracked.
+	 */
+	boolean isChanged()
+	{
+		return mChanged;
+	}
+
+
+	void markPersisted()
+	{
+		mChanged = false;
+	}
+
+
 	public void drop()
 	{
 		mDatabase.deleteMapImpl(mName);
@@ -0,0 +1,435 @@
+package org.terifan.raccoon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.terifan.raccoon.btree.ArrayMapEntry;
+import org.terifan.raccoon.document.Document;
+import org.terifan.raccoon.document.ObjectId;
+import org.terifan.raccoon.exceptions.DatabaseException;
+import org.terifan.raccoon.result.CommitResult;
+import org.terifan.raccoon.result.DropResult;
+import org.terifan.raccoon.result.SaveManyResult;
+import org.terifan.raccoon.result.SaveOneResult;
+import org.terifan.raccoon.util.FutureQueue;
+
+
+/**
+ * A collection spread over a fixed number of partitions. Documents are assigned to a partition by hashing the _id value and every
+ * partition is an ordinary collection with its own tree and executor, allowing writes to different partitions to proceed in
+ * parallel. Scans visit all partitions in parallel and the merged result has no particular order.
+ */
+public final class RaccoonPartitionedCollection implements Iterable<Document>
+{
+	private final RaccoonDatabase mDatabase;
+	private final String mName;
+	private final RaccoonCollection[] mPartitions;
+	private Supplier<Object> mKeySupplier;
+
+
+	RaccoonPartitionedCollection(RaccoonDatabase aDatabase, String aName, RaccoonCollection[] aPartitions)
+	{
+		mDatabase = aDatabase;
+		mName = aName;
+		mPartitions = aPartitions;
+		mKeySupplier = () -> ObjectId.randomId();
+	}
+
+
+	public String getName()
+	{
+		return mName;
+	}
+
+
+	public int getPartitionCount()
+	{
+		return mPartitions.length;
+	}
+
+
+	/**
+	 * Find one document updating the provided document returning true if it was found.
+	 *
+	 * @return if a document was found
+	 */
+	public boolean tryFindOne(Document aDocument)
+	{
+		return partitionOf(aDocument).tryFindOne(aDocument);
+	}
+
+
+	/**
+	 * Find documents updating the document instances provided. Partitions are searched in parallel.
+	 *
+	 * @return if all was found
+	 */
+	public boolean tryFindMany(List<Document> aDocuments)
+	{
+		ArrayList<CompletableFuture<Boolean>> futures = new ArrayList<>();
+		List<Document>[] groups = group(aDocuments);
+		for (int i = 0; i < groups.length; i++)
+		{
+			if (!groups[i].isEmpty())
+			{
+				RaccoonCollection partition = mPartitions[i];
+				List<Document> group = groups[i];
+				futures.add(CompletableFuture.supplyAsync(() -> partition.tryFindMany(group), mDatabase.getWorkerPool()));
+			}
+		}
+
+		boolean all = true;
+		for (CompletableFuture<Boolean> future : futures)
+		{
+			all &= future.join();
+		}
+		return all;
+	}
+
+
+	/**
+	 * Find a document or throws an exception if not found.
+	 *
+	 * @return the found document
+	 */
+	public Future<Document> findOne(Document aDocument)
+	{
+		return partitionOf(aDocument).findOne(aDocument);
+	}
+
+
+	/**
+	 * Insert or replace a document returning a summary of changes.
+	 *
+	 * @return a summary of changes
+	 */
+	public Future<SaveOneResult> saveOne(Document aDocument)
+	{
+		createKeys(aDocument);
+
+		return partitionOf(aDocument).saveOne(aDocument);
+	}
+
+
+	/**
+	 * Insert or replace documents returning a summary of changes. Each partition saves its documents in parallel.
+	 *
+	 * @return a summary of changes
+	 */
+	public Future<SaveManyResult> saveMany(Document... aDocuments)
+	{
+		return saveMany(Arrays.asList(aDocuments));
+	}
+
+
+	/**
+	 * Insert or replace documents returning a summary of changes. Each partition saves its documents in parallel.
+	 *
+	 * @return a summary of changes
+	 */
+	public Future<SaveManyResult> saveMany(List<Document> aDocuments)
+	{
+		for (Document document : aDocuments)
+		{
+			createKeys(document);
+		}
+
+		ArrayList<Future<SaveManyResult>> futures = new ArrayList<>();
+		List<Document>[] groups = group(aDocuments);
+		for (int i = 0; i < groups.length; i++)
+		{
+			if (!groups[i].isEmpty())
+			{
+				futures.add(mPartitions[i].saveMany(groups[i]));
+			}
+		}
+
+		return CompletableFuture.supplyAsync(() ->
+		{
+			SaveManyResult result = new SaveManyResult();
+			for (Future<SaveManyResult> future : futures)
+			{
+				SaveManyResult partial = await(future);
+				result.inserted.addAll(partial.inserted);
+				result.updated.addAll(partial.updated);
+			}
+			return result;
+		}, mDatabase.getWorkerPool());
+	}
+
+
+	/**
+	 * Delete one document or throws an exception if not found.
+	 *
+	 * @return the deleted document
+	 */
+	public Future<Document> deleteOne(Document aDocument)
+	{
+		return partitionOf(aDocument).deleteOne(aDocument);
+	}
+
+
+	/**
+	 * Delete one document and return if it was deleted.
+	 *
+	 * @return if a document was deleted
+	 */
+	public boolean tryDeleteOne(Document aDocument)
+	{
+		return partitionOf(aDocument).tryDeleteOne(aDocument);
+	}
+
+
+	/**
+	 * Delete many documents and return if all was deleted. Partitions are updated in parallel.
+	 *
+	 * @return if all was deleted
+	 */
+	public boolean tryDeleteMany(List<Document> aDocuments)
+	{
+		ArrayList<CompletableFuture<Boolean>> futures = new ArrayList<>();
+		List<Document>[] groups = group(aDocuments);
+		for (int i = 0; i < groups.length; i++)
+		{
+			if (!groups[i].isEmpty())
+			{
+				RaccoonCollection partition = mPartitions[i];
+				List<Document> group = groups[i];
+				futures.add(CompletableFuture.supplyAsync(() -> partition.tryDeleteMany(group), mDatabase.getWorkerPool()));
+			}
+		}
+
+		boolean all = true;
+		for (CompletableFuture<Boolean> future : futures)
+		{
+			all &= future.join();
+		}
+		return all;
+	}
+
+
+	/**
+	 * Return all documents. All partitions are scanned in parallel.
+	 *
+	 * @return all documents
+	 */
+	public Future<ArrayList<Document>> find()
+	{
+		ArrayList<Future<ArrayList<Document>>> futures = new ArrayList<>();
+		for (RaccoonCollection partition : mPartitions)
+		{
+			futures.add(partition.find());
+		}
+
+		return CompletableFuture.supplyAsync(() ->
+		{
+			ArrayList<Document> result = new ArrayList<>();
+			for (Future<ArrayList<Document>> future : futures)
+			{
+				result.addAll(await(future));
+			}
+			return result;
+		}, mDatabase.getWorkerPool());
+	}
+
+
+	/**
+	 * Return the number of documents in all partitions.
+	 *
+	 * @return documents in the collection
+	 */
+	public Future<AtomicLong> size()
+	{
+		ArrayList<Future<AtomicLong>> futures = new ArrayList<>();
+		for (RaccoonCollection partition : mPartitions)
+		{
+			futures.add(partition.size());
+		}
+
+		return CompletableFuture.supplyAsync(() ->
+		{
+			AtomicLong result = new AtomicLong();
+			for (Future<AtomicLong> future : futures)
+			{
+				result.addAndGet(await(future).get());
+			}
+			return result;
+		}, mDatabase.getWorkerPool());
+	}
+
+
+	/**
+	 * Commit the database. The partitions are committed in parallel and their roots are published to the database root.
+	 *
+	 * @return a summary of changes
+	 */
+	public Future<CommitResult> commit()
+	{
+		Future<Document> commit = mDatabase.commit();
+
+		return CompletableFuture.supplyAsync(() ->
+		{
+			await(commit);
+			return new CommitResult();
+		}, mDatabase.getWorkerPool());
+	}
+
+
+	/**
+	 * Drop all partitions and remove the collection from the database.
+	 */
+	public Future<DropResult> drop()
+	{
+		FutureQueue queue = new FutureQueue();
+		for (RaccoonCollection partition : mPartitions)
+		{
+			try
+			{
+				queue.add(partition.drop());
+			}
+			catch (IOException | InterruptedException | ExecutionException e)
+			{
+				throw new DatabaseException(e);
+			}
+		}
+
+		return CompletableFuture.supplyAsync(() ->
+		{
+			try (queue) // FutureQueue blocks until all futures have been executed
+			{
+			}
+			catch (Exception e)
+			{
+				throw new DatabaseException(e);
+			}
+			mDatabase.removePartitionedCollectionImpl(mName);
+			return new DropResult();
+		}, mDatabase.getWorkerPool());
+	}
+
+
+	/**
+	 * Returning a live iterator visiting the partitions one after another.
+	 *
+	 * @return an iterator over all documents in this collection
+	 */
+	@Override
+	public Iterator<Document> iterator()
+	{
+		return new Iterator<>()
+		{
+			private int mIndex;
+			private Iterator<Document> mIterator = mPartitions[0].iterator();
+
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!mIterator.hasNext())
+				{
+					if (++mIndex == mPartitions.length)
+					{
+						return false;
+					}
+					mIterator = mPartitions[mIndex].iterator();
+				}
+				return true;
+			}
+
+
+			@Override
+			public Document next()
+			{
+				if (!hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return mIterator.next();
+			}
+		};
+	}
+
+
+	public Stream<Document> stream()
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), 0), false);
+	}
+
+
+	/**
+	 * Set the supplier of new document ID values. Default is <code>ObjectId.randomId()</code>.
+	 */
+	public RaccoonPartitionedCollection withIdSupplier(Supplier<Object> aSupplier)
+	{
+		mKeySupplier = aSupplier;
+		return this;
+	}
+
+
+	/**
+	 * Return the partition owning the document. The _id value is hashed using its marshalled form which is stable between
+	 * sessions.
+	 */
+	int partitionIndex(Document aDocument)
+	{
+		byte[] key = new ArrayMapEntry().setKey(aDocument).getKey();
+		int hash = Arrays.hashCode(key);
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash, mPartitions.length);
+	}
+
+
+	private RaccoonCollection partitionOf(Document aDocument)
+	{
+		return mPartitions[partitionIndex(aDocument)];
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private List<Document>[] group(List<Document> aDocuments)
+	{
+		List<Document>[] groups = new List[mPartitions.length];
+		for (int i = 0; i < groups.length; i++)
+		{
+			groups[i] = new ArrayList<>();
+		}
+		for (Document document : aDocuments)
+		{
+			groups[partitionIndex(document)].add(document);
+		}
+		return groups;
+	}
+
+
+	private void createKeys(Document aDocument)
+	{
+		if (!aDocument.containsKey("_id"))
+		{
+			aDocument.put("_id", mKeySupplier.get());
+		}
+	}
+
+
+	private static <T> T await(Future<T> aFuture)
+	{
+		try
+		{
+			return aFuture.get();
+		}
+		catch (InterruptedException | ExecutionException e)
+		{
+			throw new DatabaseException(e);
+		}
+	}
+}
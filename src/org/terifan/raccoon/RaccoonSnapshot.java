@@ -0,0 +1,178 @@
+package org.terifan.raccoon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.terifan.raccoon.btree.ArrayMapEntry;
+import org.terifan.raccoon.btree.ArrayMapEntryView;
+import org.terifan.raccoon.btree.BTree;
+import org.terifan.raccoon.btree.BTreeIterator;
+import org.terifan.raccoon.btree.BTreeLeafNode;
+import org.terifan.raccoon.btree.BTreeVisitor;
+import org.terifan.raccoon.btree.OpState;
+import org.terifan.raccoon.document.Document;
+import org.terifan.raccoon.exceptions.DatabaseClosedException;
+
+
+/**
+ * A read-only view of a collection pinned to the root block of a commit. All methods execute on the calling thread and may be
+ * used from several threads at once.
+ */
+public final class RaccoonSnapshot implements Iterable<Document>, AutoCloseable
+{
+	private final RaccoonCollection mCollection;
+	private BTree mTree;
+
+
+	RaccoonSnapshot(RaccoonCollection aCollection, BTree aTree)
+	{
+		mCollection = aCollection;
+		mTree = aTree;
+	}
+
+
+	/**
+	 * Find one document updating the provided document returning true if it was found.
+	 *
+	 * @return if a document was found
+	 */
+	public boolean tryFindOne(Document aDocument)
+	{
+		ArrayMapEntry entry = new ArrayMapEntry().setKey(aDocument);
+
+		getTree().get(entry);
+
+		if (entry.getState() == OpState.MATCH)
+		{
+			aDocument.putAll(mCollection.readExternalEntry(entry));
+			return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Find documents updating the document instances provided.
+	 *
+	 * @return if all was found
+	 */
+	public boolean tryFindMany(Document... aDocuments)
+	{
+		return tryFindMany(Arrays.asList(aDocuments));
+	}
+
+
+	/**
+	 * Find documents updating the document instances provided.
+	 *
+	 * @return if all was found
+	 */
+	public boolean tryFindMany(List<Document> aDocuments)
+	{
+		boolean all = true;
+		for (Document document : aDocuments)
+		{
+			all &= tryFindOne(document);
+		}
+		return all;
+	}
+
+
+	/**
+	 * Return all documents in the snapshot.
+	 *
+	 * @return all documents
+	 */
+	public ArrayList<Document> find()
+	{
+		ArrayList<Document> result = new ArrayList<>();
+		getTree().visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean leaf(BTreeLeafNode aNode)
+			{
+				aNode.forEachView(e -> result.add(mCollection.readExternalEntry(e)));
+				return true;
+			}
+		});
+		return result;
+	}
+
+
+	/**
+	 * Return the number of documents in the snapshot.
+	 *
+	 * @return documents in the snapshot
+	 */
+	public long size()
+	{
+		return getTree().size();
+	}
+
+
+	@Override
+	public Iterator<Document> iterator()
+	{
+		return new BTreeIterator(getTree())
+		{
+			@Override
+			protected Document unmarshal(ArrayMapEntryView aEntry)
+			{
+				return mCollection.decodeFields(super.unmarshal(aEntry));
+			}
+
+
+			@Override
+			protected void remove(ArrayMapEntry aEntry)
+			{
+				throw new UnsupportedOperationException("Snapshot is read-only");
+			}
+		};
+	}
+
+
+	public Stream<Document> stream()
+	{
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), 0), false);
+	}
+
+
+	public void foreach(Consumer<Document> aConsumer)
+	{
+		for (Document doc : this)
+		{
+			aConsumer.accept(doc);
+		}
+	}
+
+
+	private BTree getTree()
+	{
+		BTree tree = mTree;
+		if (tree == null)
+		{
+			throw new DatabaseClosedException("Snapshot is closed");
+		}
+		return tree;
+	}
+
+
+	/**
+	 * Release the snapshot allowing blocks retained by it to be reused.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (mTree != null)
+		{
+			mTree.close();
+			mTree = null;
+		}
+	}
+}
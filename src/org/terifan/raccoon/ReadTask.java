@@ -1,6 +1,7 @@
 package org.terifan.raccoon;
 
 import org.terifan.logging.Logger;
+import org.terifan.raccoon.util.ReadWriteLock.ReadLock;
 
 
 abstract class ReadTask implements Runnable
@@ -25,7 +26,7 @@ abstract class ReadTask implements Runnable
 		mCollection.log.d(mDescription);
 		mCollection.log.inc();
 
-		try
+		try (ReadLock lock = mCollection.mLock.readLock())
 		{
 			call();
 		}
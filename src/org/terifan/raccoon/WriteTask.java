@@ -1,12 +1,15 @@
 package org.terifan.raccoon;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.terifan.logging.Logger;
+import org.terifan.raccoon.util.ReadWriteLock.WriteLock;
 
 
 abstract class WriteTask implements Runnable
 {
 	private String mDescription;
 	private RaccoonCollection mCollection;
+	private final AtomicBoolean mReleased = new AtomicBoolean();
 
 
 	public WriteTask(RaccoonCollection aCollection, String aDescription)
@@ -25,7 +28,7 @@ abstract class WriteTask implements Runnable
 		mCollection.log.d(mDescription);
 		mCollection.log.inc();
 
-		try
+		try (WriteLock lock = mCollection.mLock.writeLock())
 		{
 			call();
 		}
@@ -35,7 +38,21 @@ abstract class WriteTask implements Runnable
 		}
 		finally
 		{
+			release();
 			mCollection.log.dec();
 		}
 	}
+
+
+	/**
+	 * Release the pending write counted for this task. Called when the task finish or is cancelled before it has run; only the
+	 * first call has any effect.
+	 */
+	void release()
+	{
+		if (mReleased.compareAndSet(false, true))
+		{
+			mCollection.mPendingWrites.decrementAndGet();
+		}
+	}
 }
@@ -357,6 +357,17 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 	}
 
 
+	/**
+	 * Position the view on the entry at the index without copying any data.
+	 */
+	ArrayMapEntryView loadView(int aIndex, ArrayMapEntryView aView)
+	{
+		int entryOffset = readEntryOffset(aIndex);
+
+		return aView.set(mBuffer, mStartOffset + readKeyOffset(entryOffset), readKeyLength(entryOffset), mStartOffset + readValueOffset(entryOffset), readValueLength(entryOffset));
+	}
+
+
 	public void remove(int aIndex)
 	{
 		removeImpl(aIndex);
@@ -373,6 +384,7 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 		}
 		else
 		{
+			loadKeyAndValue(index, aKey);
 			aKey.setState(OpState.REMOVED);
 			removeImpl(index);
 		}
@@ -510,6 +522,24 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 	}
 
 
+	/**
+	 * Return the number of leading bytes the marshalled keys of the two entries have in common.
+	 */
+	int commonKeyPrefixLength(int aIndex, int aOtherIndex)
+	{
+		int entryOffset = readEntryOffset(aIndex);
+		int otherEntryOffset = readEntryOffset(aOtherIndex);
+		int keyOffset = mStartOffset + readKeyOffset(entryOffset);
+		int otherKeyOffset = mStartOffset + readKeyOffset(otherEntryOffset);
+		int keyLength = readKeyLength(entryOffset);
+		int otherKeyLength = readKeyLength(otherEntryOffset);
+
+		int i = Arrays.mismatch(mBuffer, keyOffset, keyOffset + keyLength, mBuffer, otherKeyOffset, otherKeyOffset + otherKeyLength);
+
+		return i == -1 ? keyLength : i;
+	}
+
+
 	private static void fill(byte[] aBuffer, int aOffset, int aLength)
 	{
 		for (int i = aOffset, j = aOffset + aLength; i < j; i++)
@@ -567,13 +597,13 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 	}
 
 
-	private int readValueOffset(int aEntryOffset)
+	int readValueOffset(int aEntryOffset)
 	{
 		return aEntryOffset + ENTRY_HEADER_SIZE + readKeyLength(aEntryOffset);
 	}
 
 
-	private int readValueLength(int aEntryOffset)
+	int readValueLength(int aEntryOffset)
 	{
 		return readInt16(aEntryOffset + 2);
 	}
@@ -702,6 +732,56 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 	}
 
 
+	/**
+	 * Append an entry after the last entry copying the key from a prefix and a suffix and the value directly from the buffer. The
+	 * caller must provide keys in ascending order and a map with room for the entry.
+	 */
+	void append(byte[] aBuffer, int aPrefixOffset, int aPrefixLength, int aSuffixOffset, int aSuffixLength, int aValueOffset, int aValueLength)
+	{
+		int keyLength = aPrefixLength + aSuffixLength;
+
+		assert getFreeSpace() >= ENTRY_HEADER_SIZE + keyLength + aValueLength + ENTRY_POINTER_SIZE;
+
+		mModCount++;
+
+		// make room for pointer
+		int index = mEntryCount++;
+		System.arraycopy(mBuffer, mStartOffset + mPointerListOffset, mBuffer, mStartOffset + mPointerListOffset - ENTRY_POINTER_SIZE, ENTRY_POINTER_SIZE * index);
+		mPointerListOffset -= ENTRY_POINTER_SIZE;
+
+		// write entry
+		int entryOffset = mFreeSpaceOffset;
+		writeEntryOffset(index, entryOffset);
+		writeKeyLength(entryOffset, keyLength);
+		writeValueLength(entryOffset, aValueLength);
+
+		int keyOffset = mStartOffset + readKeyOffset(entryOffset);
+		System.arraycopy(aBuffer, aPrefixOffset, mBuffer, keyOffset, aPrefixLength);
+		System.arraycopy(aBuffer, aSuffixOffset, mBuffer, keyOffset + aPrefixLength, aSuffixLength);
+		System.arraycopy(aBuffer, aValueOffset, mBuffer, keyOffset + keyLength, aValueLength);
+
+		mFreeSpaceOffset += ENTRY_HEADER_SIZE + keyLength + aValueLength;
+
+		writeBufferHeader();
+	}
+
+
+	/**
+	 * Return true if the key of the entry is greater than the last key in this map or if the map is empty.
+	 */
+	boolean isAfterLast(ArrayMapEntry aEntry)
+	{
+		if (mEntryCount == 0)
+		{
+			return true;
+		}
+
+		int entryOffset = readEntryOffset(mEntryCount - 1);
+
+		return aEntry.compareToIncludingType(mBuffer, mStartOffset + readKeyOffset(entryOffset), readKeyLength(entryOffset)) > 0;
+	}
+
+
 	public ArrayMapEntry getFirst()
 	{
 		return mEntryCount == 0 ? null : get(0);
@@ -725,7 +805,7 @@ class ArrayMap implements Iterable<ArrayMapEntry>
 	public ArrayMapEntry removeLast()
 	{
 		ArrayMapEntry entry = getLast();
-		removeImpl(0);
+		removeImpl(mEntryCount - 1);
 		return entry;
 	}
 
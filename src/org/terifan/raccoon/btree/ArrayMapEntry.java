@@ -1,11 +1,8 @@
 package org.terifan.raccoon.btree;
 
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.UUID;
 import org.terifan.raccoon.blockdevice.BlockPointer;
-import static org.terifan.raccoon.blockdevice.util.ByteArrayUtil.getInt64;
-import static org.terifan.raccoon.blockdevice.util.ByteArrayUtil.putInt64;
 import org.terifan.raccoon.document.Array;
 import org.terifan.raccoon.document.Document;
 import org.terifan.raccoon.document.ObjectId;
@@ -112,13 +109,13 @@ public class ArrayMapEntry implements Comparable<ArrayMapEntry>
 		switch (mKeyType)
 		{
 			case OBJECTID: return (T)ObjectId.fromByteArray(mKey);
-			case LONG: return (T)(Long)getInt64(mKey, 0);
-			case STRING: return (T)new String(mKey, Charset.defaultCharset());
-			case DOCUMENT: return (T)new Document().fromByteArray(mKey);
-			case ARRAY: return (T)new Array().fromByteArray(mKey);
+			case LONG: return (T)(Long)KeyEncoder.decodeLong(mKey, 0);
+			case STRING: return (T)KeyEncoder.decodeString(mKey);
+			case DOCUMENT: return (T)KeyEncoder.decodeDocument(mKey);
+			case ARRAY: return (T)KeyEncoder.decodeArray(mKey);
 			case BLOCKPOINTER: return (T)BlockPointer.fromByteArray(mKey);
-			case UUID: return (T)new UUID(getInt64(mKey, 0), getInt64(mKey, 8));
-			case DOUBLE: return (T)(Double)Double.longBitsToDouble(getInt64(mKey, 0));
+			case UUID: return (T)KeyEncoder.decodeUUID(mKey, 0);
+			case DOUBLE: return (T)(Double)KeyEncoder.decodeDouble(mKey, 0);
 			case BYTEARRAY: return (T)mKey;
 			default: throw new Error();
 		}
@@ -128,17 +125,17 @@ public class ArrayMapEntry implements Comparable<ArrayMapEntry>
 	public ArrayMapEntry setKeyInstance(Object aKey)
 	{
 		if (aKey instanceof ObjectId v) return setKey(v.toByteArray(), Type.OBJECTID);
-		if (aKey instanceof Long v) return setKey(putInt64(new byte[8], 0, v), Type.LONG);
-		if (aKey instanceof Integer v) return setKey(putInt64(new byte[8], 0, v), Type.LONG);
-		if (aKey instanceof Short v) return setKey(putInt64(new byte[8], 0, v), Type.LONG);
-		if (aKey instanceof Byte v) return setKey(putInt64(new byte[8], 0, v), Type.LONG);
-		if (aKey instanceof Double v) return setKey(putInt64(new byte[8], 0, Double.doubleToLongBits(v)), Type.DOUBLE);
-		if (aKey instanceof Float v) return setKey(putInt64(new byte[8], 0, Double.doubleToLongBits(v)), Type.DOUBLE);
-		if (aKey instanceof String v) return setKey(v.getBytes(Charset.defaultCharset()), Type.STRING);
-		if (aKey instanceof Document v) return setKey(v.toByteArray(), Type.DOCUMENT);
-		if (aKey instanceof Array v) return setKey(v.toByteArray(), Type.ARRAY);
+		if (aKey instanceof Long v) return setKey(KeyEncoder.encodeLong(v), Type.LONG);
+		if (aKey instanceof Integer v) return setKey(KeyEncoder.encodeLong(v), Type.LONG);
+		if (aKey instanceof Short v) return setKey(KeyEncoder.encodeLong(v), Type.LONG);
+		if (aKey instanceof Byte v) return setKey(KeyEncoder.encodeLong(v), Type.LONG);
+		if (aKey instanceof Double v) return setKey(KeyEncoder.encodeDouble(v), Type.DOUBLE);
+		if (aKey instanceof Float v) return setKey(KeyEncoder.encodeDouble(v), Type.DOUBLE);
+		if (aKey instanceof String v) return setKey(KeyEncoder.encodeString(v), Type.STRING);
+		if (aKey instanceof Document v) return setKey(KeyEncoder.encodeDocument(v), Type.DOCUMENT);
+		if (aKey instanceof Array v) return setKey(KeyEncoder.encodeArray(v), Type.ARRAY);
 		if (aKey instanceof byte[] v) return setKey(v, Type.BYTEARRAY);
-		if (aKey instanceof UUID v) return setKey(putInt64(putInt64(new byte[16], 0, v.getMostSignificantBits()), 8, v.getLeastSignificantBits()), Type.UUID);
+		if (aKey instanceof UUID v) return setKey(KeyEncoder.encodeUUID(v), Type.UUID);
 		if (aKey instanceof BlockPointer v) return setKey(v.toByteArray(), Type.BLOCKPOINTER);
 		throw new Error(aKey == null ? "null": aKey.getClass().toString());
 	}
@@ -265,7 +262,7 @@ public class ArrayMapEntry implements Comparable<ArrayMapEntry>
 		{
 			return mKeyType == aEntry.mKeyType ? 0 : -1;
 		}
-		return compareToImpl(aEntry.mKey, 0, aEntry.mKey.length);
+		return KeyEncoder.compare(mKey, aEntry.mKey, 0, aEntry.mKey.length);
 	}
 
 
@@ -280,26 +277,7 @@ public class ArrayMapEntry implements Comparable<ArrayMapEntry>
 		{
 			return otherKeyType == Type.FIRST.ordinal() ? 0 : -1;
 		}
-		return compareToImpl(aOtherKey, aOffset + 1, aLength - 1);
-	}
-
-
-	private int compareToImpl(byte[] aOtherKey, int aOffset, int aLength)
-	{
-		return switch (mKeyType)
-		{
-			case FIRST -> throw new Error();
-			case OBJECTID -> ObjectId.compare(mKey, 0, aOtherKey, aOffset);
-			case LONG -> Long.compare(getInt64(mKey, 0), getInt64(aOtherKey, aOffset));
-			case STRING -> new String(mKey).compareTo(new String(aOtherKey, aOffset, aLength, Charset.defaultCharset()));
-			case DOCUMENT -> new Document().fromByteArray(mKey).compareTo(new Document().fromByteArray(aOtherKey, aOffset, aLength));
-			case ARRAY -> new Array().fromByteArray(mKey).compareTo(new Array().fromByteArray(aOtherKey, aOffset, aLength));
-			case BYTEARRAY -> Arrays.compare(mKey, 0, mKey.length, aOtherKey, aOffset, aOffset + aLength);
-			case UUID -> Arrays.compare(mKey, 0, 16, aOtherKey, aOffset, aOffset + 16);
-			case BLOCKPOINTER -> Arrays.compare(mKey, 0, mKey.length, aOtherKey, aOffset, aOffset + aLength); // same as array of bytes
-			case DOUBLE -> Double.compare(Double.longBitsToDouble(getInt64(mKey, 0)), Double.longBitsToDouble(getInt64(aOtherKey, aOffset)));
-			default -> throw new Error();
-		};
+		return KeyEncoder.compare(mKey, aOtherKey, aOffset + 1, aLength - 1);
 	}
 
 
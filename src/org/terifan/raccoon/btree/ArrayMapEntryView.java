@@ -0,0 +1,118 @@
+package org.terifan.raccoon.btree;
+
+import java.util.Arrays;
+import org.terifan.raccoon.blockdevice.BlockPointer;
+import org.terifan.raccoon.btree.ArrayMapEntry.Type;
+import org.terifan.raccoon.document.Document;
+
+
+/**
+ * A flyweight view of an entry inside the buffer of an ArrayMap. No data is copied when the view is positioned on an entry and a
+ * single instance is reused while scanning a node. A view is only valid until the map is modified or the view is moved.
+ */
+public final class ArrayMapEntryView
+{
+	private byte[] mBuffer;
+	private int mKeyOffset;
+	private int mKeyLength;
+	private int mValueOffset;
+	private int mValueLength;
+
+
+	ArrayMapEntryView()
+	{
+	}
+
+
+	ArrayMapEntryView set(byte[] aBuffer, int aKeyOffset, int aKeyLength, int aValueOffset, int aValueLength)
+	{
+		mBuffer = aBuffer;
+		mKeyOffset = aKeyOffset;
+		mKeyLength = aKeyLength;
+		mValueOffset = aValueOffset;
+		mValueLength = aValueLength;
+		return this;
+	}
+
+
+	public Type getKeyType()
+	{
+		return Type.values()[mBuffer[mKeyOffset]];
+	}
+
+
+	public Type getValueType()
+	{
+		return Type.values()[mBuffer[mValueOffset]];
+	}
+
+
+	int getKeyLength()
+	{
+		return mKeyLength;
+	}
+
+
+	/**
+	 * Copy the marshalled key of this entry to the start of the buffer provided.
+	 */
+	void copyKey(byte[] aBuffer)
+	{
+		System.arraycopy(mBuffer, mKeyOffset, aBuffer, 0, mKeyLength);
+	}
+
+
+	/**
+	 * Return a copy of the key of this entry.
+	 */
+	public ArrayMapEntry getKey()
+	{
+		return new ArrayMapEntry().setMarshalledKey(mBuffer, mKeyOffset, mKeyLength);
+	}
+
+
+	public <T> T getKeyInstance()
+	{
+		return getKey().getKeyInstance();
+	}
+
+
+	/**
+	 * Decode the value of this entry directly from the buffer into the document provided.
+	 */
+	public Document getValueDocument(Document aDocument)
+	{
+		return aDocument.fromByteArray(mBuffer, mValueOffset + 1, mValueLength - 1);
+	}
+
+
+	public BlockPointer getValueBlockPointer()
+	{
+		return BlockPointer.fromByteArray(Arrays.copyOfRange(mBuffer, mValueOffset + 1, mValueOffset + mValueLength));
+	}
+
+
+	/**
+	 * Decode the value of this entry into the document provided and set the _id field.
+	 */
+	public Document getInstance(Document aDocument)
+	{
+		return getValueDocument(aDocument).put("_id", getKeyInstance());
+	}
+
+
+	/**
+	 * Return a copy of this entry.
+	 */
+	public ArrayMapEntry toEntry()
+	{
+		return new ArrayMapEntry().setMarshalledKey(mBuffer, mKeyOffset, mKeyLength).setMarshalledValue(mBuffer, mValueOffset, mValueLength);
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return toEntry().toString();
+	}
+}
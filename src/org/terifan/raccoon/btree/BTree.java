@@ -3,7 +3,7 @@ package org.terifan.raccoon.btree;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.TreeMap;
+import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -13,6 +13,7 @@ import org.terifan.raccoon.blockdevice.BlockAccessor;
 import org.terifan.raccoon.blockdevice.BlockPointer;
 import org.terifan.raccoon.document.Array;
 import org.terifan.raccoon.blockdevice.BlockType;
+import org.terifan.raccoon.blockdevice.compressor.CompressorAlgorithm;
 import org.terifan.raccoon.btree.ArrayMapEntry.Type;
 import org.terifan.raccoon.util.Console;
 
@@ -23,13 +24,29 @@ public class BTree implements AutoCloseable
 
 	private final static byte[] BLOCKPOINTER_PLACEHOLDER = new BlockPointer().setBlockType(BlockType.ILLEGAL).toByteArray();
 
+	private final static int DICTIONARY_SIZE = 16 * 1024;
+	private final static int DICTIONARY_MIN_SAMPLES = 16;
+	private final static int DICTIONARY_MAX_SAMPLES = 64;
+	private final static int PARALLEL_PERSIST_THRESHOLD = 64 * 1024;
+
 	public static boolean RECORD_USE;
 
 	private final BTreeConfiguration mConfiguration;
 	private BlockAccessor mBlockAccessor;
 	private BTreeNode mRoot;
+	private BTreeLeafNode mAppendLeaf;
 	private long mModCount;
 	private long mUpdateCounter;
+	private long mFlushedCounter;
+	private long mCommittedCounter;
+	private BTree mSnapshotSource;
+	private int mSnapshotCount;
+	private final ArrayList<BlockPointer> mDeferredFree = new ArrayList<>();
+	private final ArrayList<BlockPointer> mPendingFree = new ArrayList<>();
+	private final NodeCache mNodeCache = new NodeCache(NodeCache.DEFAULT_CAPACITY);
+	private final CompressionSelector mCompressionSelector = new CompressionSelector();
+	private final ArrayList<byte[]> mDictionarySamples = new ArrayList<>();
+	private volatile byte[] mDictionary;
 
 	private final ArrayList<HashSet<BTreeNode>> mSchedule = new ArrayList<>()
 	{
@@ -55,12 +72,15 @@ public class BTree implements AutoCloseable
 
 	private void initialize()
 	{
+		mNodeCache.clear();
+		mAppendLeaf = null;
+
 		if (mConfiguration.getRoot() != null)
 		{
 			log.i("open table");
 			log.inc();
 			BlockPointer pointer = mConfiguration.getRoot();
-			mRoot = pointer.getBlockType() == BlockType.BTREE_NODE ? new BTreeInteriorNode(this, null, pointer.getBlockLevel(), new ArrayMap(readBlock(pointer), getBlockSize())) : new BTreeLeafNode(this, null, new ArrayMap(readBlock(pointer), getBlockSize()));
+			mRoot = pointer.getBlockType() == BlockType.BTREE_NODE ? new BTreeInteriorNode(this, null, pointer.getBlockLevel(), new ArrayMap(readBlock(pointer), getBlockSize())) : new BTreeLeafNode(this, null, readLeaf(pointer));
 			mRoot.mBlockPointer = pointer;
 			log.dec();
 		}
@@ -90,12 +110,14 @@ public class BTree implements AutoCloseable
 		assertNotClosed();
 
 		mRoot.get(aEntry);
+		mNodeCache.trim();
 	}
 
 
 	public void put(ArrayMapEntry aEntry)
 	{
 		assertNotClosed();
+		assertWritable();
 
 		if (aEntry.getMarshalledLength() > mConfiguration.getLimitEntrySize())
 		{
@@ -103,16 +125,115 @@ public class BTree implements AutoCloseable
 		}
 
 		mUpdateCounter++;
-		mRoot.put(aEntry);
+		if (!appendRightmost(aEntry))
+		{
+			mRoot.put(aEntry);
+		}
+		mNodeCache.trim();
+	}
+
+
+	/**
+	 * Insert the entry directly into the rightmost leaf when its key is greater than all keys in the tree, skipping the descent from
+	 * the root. The leaf last appended to is remembered and is only used if it's still the rightmost leaf of the current root.
+	 */
+	private boolean appendRightmost(ArrayMapEntry aEntry)
+	{
+		BTreeLeafNode leaf = mAppendLeaf;
+
+		if (leaf == null || leaf.mMap.isEmpty() || !leaf.mMap.isAfterLast(aEntry))
+		{
+			return false;
+		}
+
+		BTreeNode node = leaf;
+		for (BTreeInteriorNode parent = node.mParent; parent != null; node = parent, parent = parent.mParent)
+		{
+			if (parent.mChildren.indexOf(node) != parent.size() - 1)
+			{
+				return false;
+			}
+		}
+
+		if (node != mRoot)
+		{
+			return false;
+		}
+
+		leaf.put(aEntry);
+
+		for (node = leaf; node != null; node = node.mParent)
+		{
+			node.mModified = true;
+			node.mReferenced = true;
+		}
+
+		return true;
+	}
+
+
+	void setAppendLeaf(BTreeLeafNode aNode)
+	{
+		mAppendLeaf = aNode;
 	}
 
 
 	public void remove(ArrayMapEntry aEntry)
 	{
 		assertNotClosed();
+		assertWritable();
 
 		mUpdateCounter++;
 		mRoot.remove(aEntry);
+		mNodeCache.trim();
+	}
+
+
+	/**
+	 * Replace the content of an empty tree with entries provided in ascending key order. The tree is built bottom-up with every node
+	 * filled to its configured size, which is considerably faster than inserting the entries one by one.
+	 *
+	 * @return the number of entries loaded.
+	 * @throws IllegalStateException if the tree isn't empty.
+	 * @throws IllegalArgumentException if the entries aren't unique and in ascending order.
+	 */
+	public synchronized long bulkLoad(Iterator<ArrayMapEntry> aEntries)
+	{
+		assertNotClosed();
+		assertWritable();
+
+		if (!(mRoot instanceof BTreeLeafNode) || mRoot.size() > 0)
+		{
+			throw new IllegalStateException("Bulk load requires an empty tree");
+		}
+
+		BTreeBuilder builder = new BTreeBuilder(this);
+		BTreeNode root;
+
+		try
+		{
+			while (aEntries.hasNext())
+			{
+				builder.add(aEntries.next());
+			}
+			root = builder.finish();
+		}
+		catch (RuntimeException e)
+		{
+			builder.abort();
+			throw e;
+		}
+
+		if (mRoot.mBlockPointer != null)
+		{
+			mPendingFree.add(mRoot.mBlockPointer);
+		}
+		mNodeCache.remove(mRoot);
+
+		mRoot = root;
+		mUpdateCounter++;
+
+		return builder.getCount();
 	}
 
 
@@ -132,16 +253,48 @@ public class BTree implements AutoCloseable
 
 	public void flush()
 	{
-		balanceTree();
+		assertWritable();
+
+		if (mUpdateCounter != mFlushedCounter)
+		{
+			balanceTree();
+			mFlushedCounter = mUpdateCounter;
+		}
+	}
+
+
+	/**
+	 * Return true if the tree has been modified since it was last committed.
+	 */
+	public boolean isChanged()
+	{
+		return mUpdateCounter != mCommittedCounter || mRoot.mBlockPointer == null;
 	}
 
 
-	public boolean commit()
+	/**
+	 * Return true if the tree has been modified since it was last flushed or committed.
+	 */
+	public boolean isFlushRequired()
+	{
+		return mUpdateCounter != mFlushedCounter;
+	}
+
+
+	public synchronized boolean commit()
 	{
 		log.i("commit");
 		log.inc();
 
 		assertNotClosed();
+		assertWritable();
+
+		if (!isChanged())
+		{
+			log.i("tree not changed");
+			log.dec();
+			return false;
+		}
 
 		assert integrityCheck() == null : integrityCheck();
 
@@ -151,14 +304,31 @@ public class BTree implements AutoCloseable
 		log.inc();
 
 		balanceTree();
+		trainDictionary();
 
 		if (mRoot.mBlockPointer == null)
 		{
 			mRoot.mModified = true;
 		}
-		mRoot.persist();
+
+		prepareLeaves();
+
+		ArrayList<BlockPointer> replaced = new ArrayList<>();
+		mRoot.persist(replaced);
+
+		replaced.addAll(mPendingFree);
+		mPendingFree.clear();
+
+		for (BlockPointer blockPointer : replaced)
+		{
+			releaseBlock(blockPointer);
+		}
 
 		log.i("table commit finished; root block is {}", mRoot.mBlockPointer);
+		if (mConfiguration.isAdaptiveCompression())
+		{
+			log.i("{}", mCompressionSelector);
+		}
 		log.dec();
 
 		if (mModCount != modCount)
@@ -167,6 +337,8 @@ public class BTree implements AutoCloseable
 		}
 
 		mConfiguration.putRoot(mRoot.mBlockPointer);
+		mFlushedCounter = mUpdateCounter;
+		mCommittedCounter = mUpdateCounter;
 
 		log.dec();
 
@@ -174,12 +346,60 @@ public class BTree implements AutoCloseable
 	}
 
 
-	public void rollback()
+	public synchronized void rollback()
 	{
 		assertNotClosed();
+		assertWritable();
 		mUpdateCounter++;
 		log.i("rollback");
+
+		mPendingFree.clear();
+
 		initialize();
+
+		mFlushedCounter = mUpdateCounter;
+		mCommittedCounter = mUpdateCounter;
+	}
+
+
+	/**
+	 * Open a read-only tree pinned to the root block of the last commit. Blocks released by this tree are retained until all
+	 * snapshots have been closed.
+	 *
+	 * @return a read-only tree that must be closed by the caller.
+	 */
+	public synchronized BTree snapshot()
+	{
+		assertNotClosed();
+
+		BTree tree = new BTree(mBlockAccessor, new BTreeConfiguration(mConfiguration));
+		tree.mNodeCache.setCapacity(mNodeCache.getCapacity());
+		tree.mSnapshotSource = this;
+		mSnapshotCount++;
+
+		return tree;
+	}
+
+
+	private synchronized void releaseSnapshot()
+	{
+		if (--mSnapshotCount == 0 && mBlockAccessor != null)
+		{
+			log.i("releasing {} blocks retained by snapshots", mDeferredFree.size());
+
+			for (BlockPointer blockPointer : mDeferredFree)
+			{
+				mBlockAccessor.freeBlock(blockPointer);
+			}
+
+			mDeferredFree.clear();
+		}
+	}
+
+
+	public boolean isSnapshot()
+	{
+		return mSnapshotSource != null;
 	}
 
 
@@ -189,11 +409,35 @@ public class BTree implements AutoCloseable
 	@Override
 	public void close()
 	{
+		if (mSnapshotSource != null)
+		{
+			mSnapshotSource.releaseSnapshot();
+			mSnapshotSource = null;
+		}
+
+		mNodeCache.clear();
 		mRoot = null;
+		mAppendLeaf = null;
 		mBlockAccessor = null;
 	}
 
 
+	/**
+	 * Set the maximum number of bytes used by nodes loaded into memory. Clean nodes exceeding the budget are evicted and reloaded on
+	 * demand.
+	 */
+	public void setNodeCacheSize(long aNodeCacheSize)
+	{
+		mNodeCache.setCapacity(aNodeCacheSize);
+	}
+
+
+	NodeCache getNodeCache()
+	{
+		return mNodeCache;
+	}
+
+
 	public long size()
 	{
 		assertNotClosed();
@@ -225,14 +469,197 @@ public class BTree implements AutoCloseable
 	}
 
 
+	/**
+	 * Read and decode a leaf, inflating it with the dictionary of this tree if it was compressed with one.
+	 */
+	ArrayMap readLeaf(BlockPointer aBlockPointer)
+	{
+		byte[] buffer = readBlock(aBlockPointer);
+
+		if (buffer[0] == LeafFormat.FORMAT_DICTIONARY)
+		{
+			buffer = LeafFormat.decompress(buffer, getDictionary());
+		}
+
+		return LeafFormat.decode(buffer, getBlockSize());
+	}
+
+
 	BlockPointer writeBlock(byte[] aContent, int aLevel, int aBlockType)
 	{
-		return mBlockAccessor.writeBlock(aContent, aBlockType, aLevel, aLevel == 0 ? mConfiguration.getLeafCompressor() : mConfiguration.getNodeCompressor());
+		return writeBlock(prepareBlock(aContent, aLevel), aBlockType);
+	}
+
+
+	BlockPointer writeBlock(PreparedBlock aBlock, int aBlockType)
+	{
+		return mBlockAccessor.writeBlock(aBlock.mContent, aBlockType, aBlock.mLevel, aBlock.mCompressor);
+	}
+
+
+	/**
+	 * Compress the content of a node where the tree does so itself and select the compressor applied by the block accessor. No
+	 * blocks are written so nodes may be prepared concurrently once the dictionary has been loaded.
+	 */
+	PreparedBlock prepareBlock(byte[] aContent, int aLevel)
+	{
+		if (aLevel == 0 && mConfiguration.isDictionaryCompression())
+		{
+			byte[] dictionary = getDictionary();
+
+			if (dictionary != null)
+			{
+				return new PreparedBlock(LeafFormat.compress(aContent, dictionary), aLevel, CompressorAlgorithm.NONE.ordinal());
+			}
+
+			synchronized (mDictionarySamples)
+			{
+				if (mDictionarySamples.size() < DICTIONARY_MAX_SAMPLES)
+				{
+					mDictionarySamples.add(aContent);
+				}
+			}
+		}
+
+		int compressor = aLevel == 0 ? mConfiguration.getLeafCompressor() : mConfiguration.getNodeCompressor();
+
+		if (mConfiguration.isAdaptiveCompression())
+		{
+			compressor = mCompressionSelector.select(aLevel == 0 ? CompressionSelector.LEAF : CompressionSelector.NODE, compressor, aContent);
+		}
+
+		return new PreparedBlock(aContent, aLevel, compressor);
+	}
+
+
+	/**
+	 * Encode and compress the modified leaves in parallel when enough data has changed for the fan-out to pay off. Only CPU work is
+	 * done here. The blocks are allocated and written by persist on the committing thread since the block device is not known to
+	 * be thread safe.
+	 */
+	private void prepareLeaves()
+	{
+		ArrayList<BTreeLeafNode> leaves = new ArrayList<>();
+
+		if (mRoot.collectModifiedLeaves(leaves) >= PARALLEL_PERSIST_THRESHOLD)
+		{
+			getDictionary();
+			leaves.parallelStream().forEach(BTreeLeafNode::prepare);
+		}
+	}
+
+
+	/**
+	 * A block ready to be written by the block accessor.
+	 */
+	static final class PreparedBlock
+	{
+		private final byte[] mContent;
+		private final int mLevel;
+		private final int mCompressor;
+
+
+		PreparedBlock(byte[] aContent, int aLevel, int aCompressor)
+		{
+			mContent = aContent;
+			mLevel = aLevel;
+			mCompressor = aCompressor;
+		}
+	}
+
+
+	private byte[] getDictionary()
+	{
+		byte[] dictionary = mDictionary;
+
+		if (dictionary == null && mConfiguration.getDictionary() != null)
+		{
+			dictionary = mBlockAccessor.readBlock(mConfiguration.getDictionary());
+			mDictionary = dictionary;
+		}
+
+		return dictionary;
 	}
 
 
-	void freeBlock(BlockPointer aBlockPointer)
+	/**
+	 * Train the leaf dictionary once enough leaves have been sampled. The dictionary is written to a block referenced from the
+	 * configuration and never changes since all leaves compressed with it depend on it.
+	 */
+	private void trainDictionary()
 	{
+		if (!mConfiguration.isDictionaryCompression() || mConfiguration.getDictionary() != null)
+		{
+			return;
+		}
+
+		byte[] dictionary;
+
+		synchronized (mDictionarySamples)
+		{
+			if (mDictionarySamples.size() < DICTIONARY_MIN_SAMPLES)
+			{
+				return;
+			}
+
+			dictionary = DictionaryTrainer.train(mDictionarySamples, DICTIONARY_SIZE);
+			mDictionarySamples.clear();
+		}
+
+		log.i("trained leaf dictionary of {} bytes", dictionary.length);
+
+		if (dictionary.length > 0)
+		{
+			mConfiguration.putDictionary(mBlockAccessor.writeBlock(dictionary, BlockType.EXTERNAL, 0, CompressorAlgorithm.NONE.ordinal()));
+			mDictionary = dictionary;
+		}
+	}
+
+
+	/**
+	 * Write a value stored outside of the tree. The block is released with freeBlock.
+	 */
+	public BlockPointer writeExternalBlock(byte[] aContent)
+	{
+		int compressor = mConfiguration.getExternalCompressor();
+
+		if (mConfiguration.isAdaptiveCompression())
+		{
+			compressor = mCompressionSelector.select(CompressionSelector.EXTERNAL, compressor, aContent);
+		}
+
+		return mBlockAccessor.writeBlock(aContent, BlockType.EXTERNAL, 0, compressor);
+	}
+
+
+	/**
+	 * Release a block owned by this tree. The block is released when the tree is committed since it may still be reachable from the
+	 * committed root.
+	 */
+	public synchronized void freeBlock(BlockPointer aBlockPointer)
+	{
+		if (aBlockPointer != null)
+		{
+			mPendingFree.add(aBlockPointer);
+		}
+	}
+
+
+	/**
+	 * Release a block immediately. While snapshots are open the block is retained since it may still be reachable from a committed
+	 * root.
+	 */
+	synchronized void releaseBlock(BlockPointer aBlockPointer)
+	{
+		if (mSnapshotCount > 0)
+		{
+			if (aBlockPointer != null)
+			{
+				mDeferredFree.add(aBlockPointer);
+			}
+			return;
+		}
+
 		mBlockAccessor.freeBlock(aBlockPointer);
 	}
 
@@ -246,6 +673,15 @@ public class BTree implements AutoCloseable
 	}
 
 
+	private void assertWritable()
+	{
+		if (mSnapshotSource != null)
+		{
+			throw new IllegalStateException("BTree snapshot is read-only");
+		}
+	}
+
+
 	public String integrityCheck()
 	{
 		log.i("integrity check");
@@ -285,7 +721,7 @@ public class BTree implements AutoCloseable
 			public boolean leaf(BTreeLeafNode aNode)
 			{
 				aNode.forEachEntry(aConsumer);
-				freeBlock(aNode.mBlockPointer);
+				releaseBlock(aNode.mBlockPointer);
 				return true;
 			}
 
@@ -293,10 +729,21 @@ public class BTree implements AutoCloseable
 			@Override
 			public boolean afterInteriorNode(BTreeInteriorNode aNode)
 			{
-				freeBlock(aNode.mBlockPointer);
+				releaseBlock(aNode.mBlockPointer);
 				return true;
 			}
 		});
+
+		if (mConfiguration.getDictionary() != null)
+		{
+			releaseBlock(mConfiguration.getDictionary());
+		}
+
+		for (BlockPointer blockPointer : mPendingFree)
+		{
+			releaseBlock(blockPointer);
+		}
+		mPendingFree.clear();
 	}
 
 
@@ -509,24 +956,28 @@ public class BTree implements AutoCloseable
 		BTreeInteriorNode root = new BTreeInteriorNode(this, aNode.mParent, aNode.mLevel + 1, new ArrayMap(mConfiguration.getNodeSize(), getBlockSize()));
 		root.mModified = true;
 
-		ArrayMap[] maps = aNode.mMap.splitManyTail(mConfiguration.getLeafSize());
+		boolean appending = aNode.isAppending();
+		ArrayMap[] maps = splitLeafMap(aNode);
+		BTreeLeafNode last = aNode;
+		aNode.mAppendCount = 0;
 
 		for (int i = 1; i < maps.length; i++)
 		{
 			BTreeLeafNode node = new BTreeLeafNode(this, root, maps[i]);
 			node.mModified = true;
-			ArrayMapEntry key = maps[i].getKey(0);
-			ArrayMapEntry entry = new ArrayMapEntry().setKey(key.getKey(), key.getKeyType()).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
-			root.mMap.insert(entry);
-			root.mChildren.put(entry, node);
+			root.insertChild(createSeparator(maps[i - 1], maps[i]), node);
+			last = node;
 		}
 
 		aNode.mMap = maps[0];
 		aNode.mParent = root;
 		aNode.mModified = true;
+		if (appending)
+		{
+			last.mAppendCount = last.size();
+		}
 		ArrayMapEntry entry = new ArrayMapEntry().setKey(new byte[0], Type.FIRST).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
-		root.mMap.insert(entry);
-		root.mChildren.put(entry, aNode);
+		root.insertChild(entry, aNode);
 
 		mRoot = root;
 
@@ -547,8 +998,7 @@ public class BTree implements AutoCloseable
 
 		BTreeInteriorNode newRoot = new BTreeInteriorNode(this, null, aNode.mLevel + 1, new ArrayMap(mConfiguration.getNodeSize(), getBlockSize()));
 		ArrayMapEntry entry = new ArrayMapEntry().setKey(new byte[0], Type.FIRST).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
-		newRoot.mMap.insert(entry);
-		newRoot.mChildren.put(entry, aNode);
+		newRoot.insertChild(entry, aNode);
 		newRoot.mModified = true;
 
 		aNode.mParent = newRoot;
@@ -557,7 +1007,11 @@ public class BTree implements AutoCloseable
 	}
 
 
-	private void splitLeaf(BTreeLeafNode aNode)
+	/**
+	 * Split a leaf into leaves of the configured size. Leaves are normally split when the tree is flushed but are also split during
+	 * a put when they grow past the bound in the configuration, keeping the cost of inserting into a leaf constant.
+	 */
+	void splitLeaf(BTreeLeafNode aNode)
 	{
 		if (aNode.mParent == null)
 		{
@@ -565,19 +1019,24 @@ public class BTree implements AutoCloseable
 			return;
 		}
 
-//		ArrayMap[] maps = aNode.mMap.splitManyTail(mConfiguration.getLeafSize());
-		ArrayMap[] maps = aNode.mMap.splitMany(mConfiguration.getLeafSize());
+		boolean appending = aNode.isAppending();
+		ArrayMap[] maps = splitLeafMap(aNode);
+		BTreeLeafNode last = aNode;
 
 		aNode.mMap = maps[0];
+		aNode.mAppendCount = 0;
 
 		for (int i = 1; i < maps.length; i++)
 		{
 			BTreeLeafNode node = new BTreeLeafNode(this, aNode.mParent, maps[i]);
 			node.mModified = true;
-			ArrayMapEntry key = maps[i].getKey(0);
-			ArrayMapEntry entry = new ArrayMapEntry().setKey(key.getKey(), key.getKeyType()).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
-			aNode.mParent.mMap.insert(entry);
-			aNode.mParent.mChildren.put(entry, node);
+			aNode.mParent.insertChild(createSeparator(maps[i - 1], maps[i]), node);
+			last = node;
+		}
+
+		if (appending)
+		{
+			last.mAppendCount = last.size();
 		}
 
 		if (aNode.mParent.mMap.getCapacity() > mConfiguration.getNodeSize())
@@ -587,6 +1046,65 @@ public class BTree implements AutoCloseable
 	}
 
 
+	/**
+	 * Create the parent entry for the right leaf of two adjacent leaves. Variable length keys are truncated to the shortest prefix
+	 * of the right leaf's first key that is greater than the left leaf's last key. Fixed length keys are stored in full.
+	 */
+	private static ArrayMapEntry createSeparator(ArrayMap aLeft, ArrayMap aRight)
+	{
+		return createSeparator(aLeft.getKey(aLeft.size() - 1), aRight.getKey(0));
+	}
+
+
+	/**
+	 * Return the shortest key greater than the low key and less than or equal to the high key. Only string and byte array keys are
+	 * truncated since a truncated array or document key can't be decoded.
+	 */
+	static ArrayMapEntry createSeparator(ArrayMapEntry aLow, ArrayMapEntry aHigh)
+	{
+		byte[] key = aHigh.getKey();
+
+		switch (aHigh.getKeyType())
+		{
+			case STRING, BYTEARRAY:
+				if (aLow.getKeyType() == aHigh.getKeyType())
+				{
+					key = KeyEncoder.shortestSeparator(aLow.getKey(), key, aHigh.getKeyType() == Type.STRING);
+				}
+				else
+				{
+					key = new byte[0];
+				}
+		}
+
+		return new ArrayMapEntry().setKey(key, aHigh.getKeyType()).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
+	}
+
+
+	/**
+	 * Split the entries of an overflowing leaf into maps of the leaf size. A leaf receiving sequential inserts is split with all but
+	 * the last map filled completely since nothing will be inserted before its last key, other leaves are split evenly.
+	 */
+	private ArrayMap[] splitLeafMap(BTreeLeafNode aNode)
+	{
+		int capacity = getLeafSplitCapacity(aNode);
+
+		return aNode.isAppending() ? aNode.mMap.splitManyTail(capacity) : aNode.mMap.splitMany(capacity);
+	}
+
+
+	/**
+	 * Return the in-memory capacity of each leaf when splitting a leaf. Leaves are persisted prefix compressed and the capacity is
+	 * scaled so that every new leaf is filled to the configured leaf size when written.
+	 */
+	private int getLeafSplitCapacity(BTreeLeafNode aNode)
+	{
+		int storedSize = Math.max(1, aNode.getStoredSize());
+
+		return (int)Math.max(mConfiguration.getLeafSize(), (long)mConfiguration.getLeafSize() * aNode.mMap.getUsedSpace() / storedSize);
+	}
+
+
 	private void splitNode(BTreeInteriorNode aNode)
 	{
 		if (aNode.mParent == null)
@@ -596,10 +1114,14 @@ public class BTree implements AutoCloseable
 
 		ArrayMap[] maps = aNode.mMap.splitMany(mConfiguration.getNodeSize());
 
+		int offset = aNode.mMap.size();
+
 		for (int i = maps.length; --i >= 0;)
 		{
 			ArrayMap map = maps[i];
 
+			offset -= map.size();
+
 			if (i == 0)
 			{
 				aNode.mMap = map;
@@ -611,31 +1133,23 @@ public class BTree implements AutoCloseable
 				BTreeInteriorNode node = new BTreeInteriorNode(this, aNode.mParent, aNode.mLevel, map);
 				node.mModified = true;
 
-				TreeMap<ArrayMapEntry, BTreeNode> nodeChildren = node.mChildren;
+				node.mChildren = aNode.mChildren.split(offset);
 
 				for (int j = 0; j < map.size(); j++)
 				{
-					ArrayMapEntry childKey = map.getKey(j);
-					BTreeNode childNode = aNode.mChildren.remove(childKey);
+					BTreeNode childNode = node.mChildren.get(j);
 					if (childNode != null)
 					{
-						nodeChildren.put(childKey, childNode);
+						childNode.mParent = node;
 					}
 				}
 
 				ArrayMapEntry firstEntry = map.get(0);
 
 				ArrayMapEntry entry = new ArrayMapEntry().setKey(firstEntry.getKey(), firstEntry.getKeyType()).setValue(BLOCKPOINTER_PLACEHOLDER, Type.BLOCKPOINTER);
-				aNode.mParent.mMap.insert(entry);
-				aNode.mParent.mChildren.put(entry, node);
+				aNode.mParent.insertChild(entry, node);
 				aNode.mParent.mModified = true;
 
-				BTreeNode first = nodeChildren.remove(firstEntry);
-				if (first != null)
-				{
-					nodeChildren.put(new ArrayMapEntry().setKey(new byte[0], Type.FIRST), first);
-				}
-
 				firstEntry.setKey(new byte[0], Type.FIRST);
 				map.remove(0);
 				map.put(firstEntry);
@@ -672,23 +1186,244 @@ public class BTree implements AutoCloseable
 //				}
 //			}
 //	}
-	private void mergeLeaf(BTreeLeafNode aNode)
+	/**
+	 * Merge an underflowing leaf with its siblings or, if two leaves don't fit in a single leaf, move entries between them until
+	 * balanced.
+	 *
+	 * @return true if the tree structure changed
+	 */
+	private boolean mergeLeaf(BTreeLeafNode aNode)
 	{
-		if (aNode.mParent == null)
+		BTreeInteriorNode parent = aNode.mParent;
+
+		if (parent == null || parent.size() < 2 || !parent.isAttached(aNode))
 		{
-			return;
+			return false;
 		}
 
-		System.out.println(aNode.mParent.mChildren.containsValue(aNode));
+		int index = Math.min(parent.indexOf(aNode), parent.size() - 2);
+		BTreeLeafNode left = parent.getNode(index);
+		BTreeLeafNode right = parent.getNode(index + 1);
 
-		int index = aNode.mParent.indexOf(aNode);
-		System.out.println(index);
+		if (left.getStoredSize() + right.getStoredSize() <= mConfiguration.getLeafSize())
+		{
+			for (int i = 0; i < right.mMap.size(); i++)
+			{
+				left.mMap.insert(right.mMap.get(i));
+			}
+			parent.removeChild(index + 1);
+			releaseNode(right);
 
-		BTreeNode left = aNode.mParent.getNode(index - 1);
-		System.out.println(left);
+			if (mConfiguration.isLeafUnderflow(left.getStoredSize()))
+			{
+				mergeLeaf(left);
+			}
+		}
+		else
+		{
+			while (left.size() > 1 && left.mMap.getUsedSpace() - right.mMap.getUsedSpace() > left.mMap.getLast().getMarshalledLength())
+			{
+				right.mMap.insert(left.mMap.removeLast());
+			}
+			while (right.size() > 1 && right.mMap.getUsedSpace() - left.mMap.getUsedSpace() > right.mMap.getFirst().getMarshalledLength())
+			{
+				left.mMap.insert(right.mMap.removeFirst());
+			}
+			replaceSeparator(parent, index + 1, createSeparator(left.mMap, right.mMap));
+			right.mModified = true;
+		}
 
-		BTreeNode right = aNode.mParent.getNode(index + 1);
-		System.out.println(right);
+		left.mModified = true;
+		parent.mModified = true;
+
+		if (mConfiguration.isNodeUnderflow(parent.mMap.getUsedSpace()))
+		{
+			schedule(parent);
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Merge an underflowing interior node with a sibling or move children between them until balanced. Children are rotated through
+	 * the parent since the first entry of an interior node has no key.
+	 *
+	 * @return true if the tree structure changed
+	 */
+	private boolean mergeNode(BTreeInteriorNode aNode)
+	{
+		BTreeInteriorNode parent = aNode.mParent;
+
+		if (parent == null || parent.size() < 2 || !parent.isAttached(aNode))
+		{
+			return false;
+		}
+
+		int index = Math.min(parent.indexOf(aNode), parent.size() - 2);
+		BTreeInteriorNode left = parent.getNode(index);
+		BTreeInteriorNode right = parent.getNode(index + 1);
+
+		if (left.mMap.getUsedSpace() + right.mMap.getUsedSpace() <= mConfiguration.getNodeSize())
+		{
+			int boundary = left.size();
+
+			while (right.size() > 0)
+			{
+				rotateLeft(parent, index, left, right);
+			}
+			parent.removeChild(index + 1);
+			releaseNode(right);
+
+			// children that were on either side of the parents boundary are now siblings and may be merged
+			scheduleUnderflow(left.mChildren.get(boundary - 1));
+			scheduleUnderflow(left.mChildren.get(boundary));
+
+			if (mConfiguration.isNodeUnderflow(left.mMap.getUsedSpace()))
+			{
+				mergeNode(left);
+			}
+		}
+		else
+		{
+			while (left.size() > 2 && left.mMap.getUsedSpace() - right.mMap.getUsedSpace() > left.mMap.getLast().getMarshalledLength())
+			{
+				rotateRight(parent, index, left, right);
+			}
+			while (right.size() > 2 && right.mMap.getUsedSpace() - left.mMap.getUsedSpace() > right.mMap.get(1).getMarshalledLength())
+			{
+				rotateLeft(parent, index, left, right);
+			}
+			right.mModified = true;
+		}
+
+		left.mModified = true;
+		parent.mModified = true;
+
+		if (mConfiguration.isNodeUnderflow(parent.mMap.getUsedSpace()))
+		{
+			schedule(parent);
+		}
+
+		return true;
+	}
+
+
+	private void scheduleUnderflow(BTreeNode aNode)
+	{
+		if (aNode instanceof BTreeLeafNode v && mConfiguration.isLeafUnderflow(v.getStoredSize()) || aNode instanceof BTreeInteriorNode w && mConfiguration.isNodeUnderflow(w.mMap.getUsedSpace()))
+		{
+			schedule(aNode);
+		}
+	}
+
+
+	/**
+	 * Move the first child of the right node to the end of the left node. The separator in the parent moves down into the left node
+	 * and the key of the right node's second entry moves up into the parent.
+	 */
+	private void rotateLeft(BTreeInteriorNode aParent, int aIndex, BTreeInteriorNode aLeft, BTreeInteriorNode aRight)
+	{
+		ArrayMapEntry separator = aParent.mMap.get(aIndex + 1);
+		ArrayMapEntry first = aRight.mMap.get(0);
+		BTreeNode child = aRight.mChildren.get(0);
+		aRight.removeChild(0);
+
+		aLeft.insertChild(new ArrayMapEntry().setKey(separator.getKey(), separator.getKeyType()).setValue(first.getValue(), first.getValueType()), child);
+		if (child != null)
+		{
+			child.mParent = aLeft;
+		}
+
+		if (aRight.size() > 0)
+		{
+			ArrayMapEntry next = aRight.mMap.get(0);
+			BTreeNode nextChild = aRight.mChildren.get(0);
+			aRight.removeChild(0);
+			aRight.insertChild(new ArrayMapEntry().setKey(new byte[0], Type.FIRST).setValue(next.getValue(), next.getValueType()), nextChild);
+			replaceSeparator(aParent, aIndex + 1, next);
+		}
+	}
+
+
+	/**
+	 * Move the last child of the left node to the start of the right node. The separator in the parent moves down into the right node
+	 * and the key of the left node's last entry moves up into the parent.
+	 */
+	private void rotateRight(BTreeInteriorNode aParent, int aIndex, BTreeInteriorNode aLeft, BTreeInteriorNode aRight)
+	{
+		ArrayMapEntry separator = aParent.mMap.get(aIndex + 1);
+		int lastIndex = aLeft.size() - 1;
+		ArrayMapEntry last = aLeft.mMap.get(lastIndex);
+		BTreeNode child = aLeft.mChildren.get(lastIndex);
+		aLeft.removeChild(lastIndex);
+
+		ArrayMapEntry first = aRight.mMap.get(0);
+		BTreeNode firstChild = aRight.mChildren.get(0);
+		aRight.removeChild(0);
+		aRight.insertChild(new ArrayMapEntry().setKey(separator.getKey(), separator.getKeyType()).setValue(first.getValue(), first.getValueType()), firstChild);
+		aRight.insertChild(new ArrayMapEntry().setKey(new byte[0], Type.FIRST).setValue(last.getValue(), last.getValueType()), child);
+		if (child != null)
+		{
+			child.mParent = aRight;
+		}
+
+		replaceSeparator(aParent, aIndex + 1, last);
+	}
+
+
+	/**
+	 * Replace the key of an entry in an interior node keeping the child it refers to. The new key must sort between the keys of the
+	 * neighbouring entries.
+	 */
+	private static void replaceSeparator(BTreeInteriorNode aNode, int aIndex, ArrayMapEntry aKey)
+	{
+		ArrayMapEntry entry = aNode.mMap.get(aIndex);
+		aNode.mMap.remove(aIndex);
+		aNode.mMap.insert(new ArrayMapEntry().setKey(aKey.getKey(), aKey.getKeyType()).setValue(entry.getValue(), entry.getValueType()));
+	}
+
+
+	/**
+	 * Reduce the height of the tree while the root has a single child.
+	 *
+	 * @return true if the tree structure changed
+	 */
+	private boolean shrink()
+	{
+		boolean changed = false;
+
+		while (mRoot instanceof BTreeInteriorNode v && v.size() == 1)
+		{
+			log.i("shrinking tree, level: {}", v.mLevel - 1);
+
+			BTreeNode child = v.getNode(0);
+			child.mParent = null;
+			releaseNode(v);
+			mRoot = child;
+			changed = true;
+		}
+
+		return changed;
+	}
+
+
+	/**
+	 * Drop a node removed from the tree. The block of the node is released when the tree is committed.
+	 */
+	private void releaseNode(BTreeNode aNode)
+	{
+		if (aNode.mBlockPointer != null)
+		{
+			mPendingFree.add(aNode.mBlockPointer);
+			aNode.mBlockPointer = null;
+		}
+		if (aNode instanceof BTreeInteriorNode v)
+		{
+			v.mChildren = new ChildTable(0);
+		}
+		aNode.mModified = false;
+		mNodeCache.remove(aNode);
 	}
 
 
@@ -699,6 +1434,7 @@ public class BTree implements AutoCloseable
 
 		ArrayList<Integer> splits = new ArrayList<>();
 		long t = System.currentTimeMillis();
+		boolean merged = false;
 
 		for (int i = 0; i < mSchedule.size(); i++)
 		{
@@ -720,19 +1456,20 @@ public class BTree implements AutoCloseable
 				{
 					if (node instanceof BTreeLeafNode v)
 					{
-						if (v.mMap.getUsedSpace() < mConfiguration.getLeafSize() / 4)
+						if (mConfiguration.isLeafUnderflow(v.getStoredSize()))
 						{
-							mergeLeaf(v);
+							merged |= mergeLeaf(v);
 						}
-						else if (v.mMap.getUsedSpace() > mConfiguration.getLeafSize())
+						else if (v.getStoredSize() > mConfiguration.getLeafSize())
 						{
 							splitLeaf(v);
 						}
 					}
 					else if (node instanceof BTreeInteriorNode v)
 					{
-						if (v.mMap.getUsedSpace() < mConfiguration.getNodeSize() / 4)
+						if (mConfiguration.isNodeUnderflow(v.mMap.getUsedSpace()))
 						{
+							merged |= mergeNode(v);
 						}
 						else if (v.mMap.getUsedSpace() > mConfiguration.getNodeSize())
 						{
@@ -741,6 +1478,24 @@ public class BTree implements AutoCloseable
 					}
 				}
 			}
+
+			// merging interior nodes may schedule nodes on lower levels
+			for (int j = 0; j < i; j++)
+			{
+				if (!mSchedule.get(j).isEmpty())
+				{
+					i = j - 1;
+					break;
+				}
+			}
+		}
+
+		merged |= shrink();
+
+		// iterators reposition themselves when the update counter changes
+		if (merged)
+		{
+			mUpdateCounter++;
 		}
 
 		log.i(splits.toString());
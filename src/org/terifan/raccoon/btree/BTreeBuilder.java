@@ -0,0 +1,182 @@
+package org.terifan.raccoon.btree;
+
+import java.util.ArrayList;
+import org.terifan.raccoon.blockdevice.BlockPointer;
+import org.terifan.raccoon.blockdevice.BlockType;
+import org.terifan.raccoon.btree.ArrayMapEntry.Type;
+
+
+/**
+ * Builds a tree bottom-up from entries provided in ascending key order. Leaves and interior nodes are filled to their configured
+ * size and written as soon as they are full so only the rightmost node of each level is held in memory. The topmost node is
+ * returned unwritten and becomes the root of the tree.
+ */
+final class BTreeBuilder
+{
+	private final BTree mTree;
+	private final int mLeafSize;
+	private final int mNodeSize;
+	private final ArrayList<Level> mLevels;
+	private final ArrayList<BlockPointer> mWritten;
+	private ArrayMap mLeaf;
+	private ArrayMapEntry mLastEntry;
+	private ArrayMapEntry mLastKey;
+	private long mCount;
+
+
+	BTreeBuilder(BTree aTree)
+	{
+		mTree = aTree;
+		mLeafSize = aTree.getConfiguration().getLeafSize();
+		mNodeSize = aTree.getConfiguration().getNodeSize();
+		mLevels = new ArrayList<>();
+		mWritten = new ArrayList<>();
+		mLeaf = new ArrayMap(mLeafSize, aTree.getBlockSize());
+	}
+
+
+	void add(ArrayMapEntry aEntry)
+	{
+		if (mLastEntry != null && aEntry.compareTo(mLastEntry) <= 0)
+		{
+			throw new IllegalArgumentException("Entries must be unique and provided in ascending key order: " + aEntry.toKeyString());
+		}
+		if (aEntry.getMarshalledLength() > mTree.getConfiguration().getLimitEntrySize())
+		{
+			throw new IllegalArgumentException("Combined length of key and value exceed maximum length: length: " + aEntry.getMarshalledLength() + ", maximum: " + mTree.getConfiguration().getLimitEntrySize());
+		}
+
+		mLeaf.insert(aEntry);
+
+		if (mLeaf.size() > 1 && LeafFormat.estimateSize(mLeaf) > mLeafSize)
+		{
+			mLeaf.removeLast();
+			writeLeaf();
+			mLeaf.insert(aEntry);
+		}
+
+		mLastEntry = aEntry;
+		mCount++;
+	}
+
+
+	long getCount()
+	{
+		return mCount;
+	}
+
+
+	/**
+	 * Write all pending nodes and return the root of the new tree. The root is not written and is marked as modified.
+	 */
+	BTreeNode finish()
+	{
+		if (mLevels.isEmpty())
+		{
+			BTreeLeafNode root = new BTreeLeafNode(mTree, null, mLeaf);
+			root.mModified = true;
+			return root;
+		}
+
+		if (!mLeaf.isEmpty())
+		{
+			writeLeaf();
+		}
+
+		for (int level = 1;; level++)
+		{
+			if (level == mLevels.size())
+			{
+				BTreeInteriorNode root = new BTreeInteriorNode(mTree, null, level, mLevels.get(level - 1).mMap);
+				root.mModified = true;
+				return root;
+			}
+
+			writeNode(level);
+		}
+	}
+
+
+	/**
+	 * Free all blocks written by this builder.
+	 */
+	void abort()
+	{
+		for (BlockPointer blockPointer : mWritten)
+		{
+			mTree.releaseBlock(blockPointer);
+		}
+		mWritten.clear();
+	}
+
+
+	private void writeLeaf()
+	{
+		ArrayMapEntry firstKey = mLeaf.getKey(0);
+		ArrayMapEntry separator = mLastKey == null ? firstKey : BTree.createSeparator(mLastKey, firstKey);
+		mLastKey = mLeaf.getKey(mLeaf.size() - 1);
+
+		BlockPointer blockPointer = mTree.writeBlock(LeafFormat.encode(mLeaf), 0, BlockType.BTREE_LEAF);
+		mWritten.add(blockPointer);
+
+		mLeaf = new ArrayMap(mLeafSize, mTree.getBlockSize());
+
+		push(1, separator, blockPointer);
+	}
+
+
+	private void writeNode(int aLevel)
+	{
+		Level level = mLevels.get(aLevel - 1);
+
+		BlockPointer blockPointer = mTree.writeBlock(level.mMap.array(), aLevel, BlockType.BTREE_NODE);
+		mWritten.add(blockPointer);
+
+		ArrayMapEntry lowKey = level.mLowKey;
+		level.mMap = null;
+		level.mLowKey = null;
+
+		push(aLevel + 1, lowKey, blockPointer);
+	}
+
+
+	/**
+	 * Add a child to the rightmost node of a level. The first child of each node is stored with the FIRST key and the key it was
+	 * given is pushed to the parent when the node is written.
+	 */
+	private void push(int aLevel, ArrayMapEntry aKey, BlockPointer aBlockPointer)
+	{
+		if (aLevel > mLevels.size())
+		{
+			mLevels.add(new Level());
+		}
+
+		Level level = mLevels.get(aLevel - 1);
+
+		if (level.mMap == null)
+		{
+			level.mMap = new ArrayMap(mNodeSize, mTree.getBlockSize());
+			level.mMap.insert(new ArrayMapEntry().setKey(new byte[0], Type.FIRST).setValueInstance(aBlockPointer));
+			level.mLowKey = aKey;
+			return;
+		}
+
+		ArrayMapEntry entry = new ArrayMapEntry().setKey(aKey.getKey(), aKey.getKeyType()).setValueInstance(aBlockPointer);
+
+		if (level.mMap.size() > 1 && level.mMap.getUsedSpace() + ArrayMap.ENTRY_HEADER_SIZE + ArrayMap.ENTRY_POINTER_SIZE + entry.getMarshalledLength() > mNodeSize)
+		{
+			writeNode(aLevel);
+			push(aLevel, aKey, aBlockPointer);
+			return;
+		}
+
+		level.mMap.insert(entry);
+	}
+
+
+	private static class Level
+	{
+		ArrayMap mMap;
+		ArrayMapEntry mLowKey;
+	}
+}
@@ -15,12 +15,27 @@ public class BTreeConfiguration extends Document
 	private final static String LEAF_SIZE = "lfsz";
 	private final static String NODE_COMPRESSOR = "nocp";
 	private final static String LEAF_COMPRESSOR = "lfcp";
+	private final static String MERGE_THRESHOLD = "mgth";
+	private final static String LEAF_GROWTH = "lfgr";
+	private final static String EXTERNAL_COMPRESSOR = "excp";
+	private final static String ADAPTIVE_COMPRESSION = "adcp";
+	private final static String DICTIONARY_COMPRESSION = "dcmp";
+	private final static String DICTIONARY = "dict";
+	private final static String FIELD_SYMBOLS = "fsym";
+
+	private final static int MIN_NODE_SIZE = 512;
+	private final static int MAX_NODE_SIZE = 1024 * 1024;
 
 	private final int mLimitEntrySize;
 	private final int mNodeSize;
 	private final int mLeafSize;
 	private final int mNodeCompressor;
 	private final int mLeafCompressor;
+	private final int mMergeThreshold;
+	private final int mLeafGrowth;
+	private final int mExternalCompressor;
+	private final boolean mAdaptiveCompression;
+	private final boolean mDictionaryCompression;
 
 
 	public BTreeConfiguration()
@@ -38,6 +53,131 @@ public class BTreeConfiguration extends Document
 		mLeafSize = computeIfAbsent(LEAF_SIZE, e -> 4096);
 		mNodeCompressor = computeIfAbsent(NODE_COMPRESSOR, e -> CompressorAlgorithm.ZLE.ordinal());
 		mLeafCompressor = computeIfAbsent(LEAF_COMPRESSOR, e -> CompressorAlgorithm.LZJB.ordinal());
+		mMergeThreshold = computeIfAbsent(MERGE_THRESHOLD, e -> 25);
+		mLeafGrowth = computeIfAbsent(LEAF_GROWTH, e -> 2);
+		mExternalCompressor = computeIfAbsent(EXTERNAL_COMPRESSOR, e -> CompressorAlgorithm.LZJB.ordinal());
+		mAdaptiveCompression = computeIfAbsent(ADAPTIVE_COMPRESSION, e -> false);
+		mDictionaryCompression = computeIfAbsent(DICTIONARY_COMPRESSION, e -> false);
+	}
+
+
+	/**
+	 * Create a configuration from options provided when a collection is created. Supported options are:
+	 * <pre>
+	 *    limitEntrySize        - entries larger than this are stored in separate blocks (default 1024 or a quarter of the node size)
+	 *    nodeSize              - size of interior nodes in bytes (default 4096)
+	 *    leafSize              - size of leaf nodes in bytes (default 4096)
+	 *    nodeCompressor        - name of the CompressorAlgorithm used for interior nodes (default ZLE)
+	 *    leafCompressor        - name of the CompressorAlgorithm used for leaf nodes (default LZJB)
+	 *    externalCompressor    - name of the CompressorAlgorithm used for values stored outside the tree (default LZJB)
+	 *    adaptiveCompression   - true to store blocks raw or with a stronger compressor depending on how well they compress (default false)
+	 *    dictionaryCompression - true to deflate leaves with a dictionary trained from the first leaves written (default false)
+	 *    fieldSymbols          - true to store field names of documents as short symbols (default false)
+	 *    mergeThreshold        - fill percentage below which nodes are merged (default 25)
+	 *    leafGrowth            - multiple of the leaf size a leaf may grow to between flushes (default 2)
+	 * </pre>
+	 *
+	 * @throws IllegalArgumentException if an option is unknown or has an illegal value
+	 */
+	public static BTreeConfiguration fromOptions(Document aOptions)
+	{
+		Document conf = new Document();
+
+		for (String option : aOptions.keySet())
+		{
+			switch (option)
+			{
+				case "limitEntrySize":
+					conf.put(LIMIT_SIZE, aOptions.getInt(option));
+					break;
+				case "nodeSize":
+					conf.put(NODE_SIZE, aOptions.getInt(option));
+					break;
+				case "leafSize":
+					conf.put(LEAF_SIZE, aOptions.getInt(option));
+					break;
+				case "nodeCompressor":
+					conf.put(NODE_COMPRESSOR, parseCompressor(aOptions.getString(option)));
+					break;
+				case "leafCompressor":
+					conf.put(LEAF_COMPRESSOR, parseCompressor(aOptions.getString(option)));
+					break;
+				case "externalCompressor":
+					conf.put(EXTERNAL_COMPRESSOR, parseCompressor(aOptions.getString(option)));
+					break;
+				case "adaptiveCompression":
+					conf.put(ADAPTIVE_COMPRESSION, aOptions.getBoolean(option));
+					break;
+				case "dictionaryCompression":
+					conf.put(DICTIONARY_COMPRESSION, aOptions.getBoolean(option));
+					break;
+				case "fieldSymbols":
+					if (aOptions.getBoolean(option))
+					{
+						conf.put(FIELD_SYMBOLS, new Document());
+					}
+					break;
+				case "mergeThreshold":
+					conf.put(MERGE_THRESHOLD, aOptions.getInt(option));
+					break;
+				case "leafGrowth":
+					conf.put(LEAF_GROWTH, aOptions.getInt(option));
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported collection option: " + option);
+			}
+		}
+
+		int nodeSize = conf.get(NODE_SIZE, 4096);
+		int leafSize = conf.get(LEAF_SIZE, 4096);
+
+		if (!conf.containsKey(LIMIT_SIZE))
+		{
+			conf.put(LIMIT_SIZE, Math.min(1024, Math.min(nodeSize, leafSize) / 4));
+		}
+
+		BTreeConfiguration configuration = new BTreeConfiguration(conf);
+		configuration.validate();
+
+		return configuration;
+	}
+
+
+	private static int parseCompressor(String aName)
+	{
+		try
+		{
+			return CompressorAlgorithm.valueOf(aName.toUpperCase()).ordinal();
+		}
+		catch (IllegalArgumentException | NullPointerException e)
+		{
+			throw new IllegalArgumentException("Unsupported compressor: " + aName);
+		}
+	}
+
+
+	private void validate()
+	{
+		if (mNodeSize < MIN_NODE_SIZE || mNodeSize > MAX_NODE_SIZE)
+		{
+			throw new IllegalArgumentException("Node size out of range: " + mNodeSize);
+		}
+		if (mLeafSize < MIN_NODE_SIZE || mLeafSize > MAX_NODE_SIZE)
+		{
+			throw new IllegalArgumentException("Leaf size out of range: " + mLeafSize);
+		}
+		if (mLimitEntrySize < 1 || mLimitEntrySize > Math.min(mNodeSize, mLeafSize) / 2)
+		{
+			throw new IllegalArgumentException("Entry size limit must be positive and at most half the node and leaf size: " + mLimitEntrySize);
+		}
+		if (mMergeThreshold < 0 || mMergeThreshold > 50)
+		{
+			throw new IllegalArgumentException("Merge threshold out of range: " + mMergeThreshold);
+		}
+		if (mLeafGrowth < 1)
+		{
+			throw new IllegalArgumentException("Leaf growth must be one or more: " + mLeafGrowth);
+		}
 	}
 
 
@@ -71,6 +211,54 @@ public class BTreeConfiguration extends Document
 	}
 
 
+	int getExternalCompressor()
+	{
+		return mExternalCompressor;
+	}
+
+
+	/**
+	 * Return true if the compressor of each block is chosen from how well recent blocks compressed.
+	 *
+	 * @see CompressionSelector
+	 */
+	boolean isAdaptiveCompression()
+	{
+		return mAdaptiveCompression;
+	}
+
+
+	/**
+	 * Return true if leaves are deflated with a dictionary trained from sampled leaves.
+	 */
+	boolean isDictionaryCompression()
+	{
+		return mDictionaryCompression;
+	}
+
+
+	BlockPointer getDictionary()
+	{
+		return containsKey(DICTIONARY) ? BlockPointer.fromByteArray(getBinary(DICTIONARY)) : null;
+	}
+
+
+	void putDictionary(BlockPointer aBlockPointer)
+	{
+		put(DICTIONARY, aBlockPointer.toByteArray());
+	}
+
+
+	/**
+	 * Return the table mapping field names to symbols or null if field names are stored as is. The table is updated in place when
+	 * new field names are written.
+	 */
+	public Document getFieldSymbols()
+	{
+		return containsKey(FIELD_SYMBOLS) ? getDocument(FIELD_SYMBOLS) : null;
+	}
+
+
 	int getLeafSize()
 	{
 		return mLeafSize;
@@ -83,9 +271,45 @@ public class BTreeConfiguration extends Document
 	}
 
 
+	/**
+	 * Return the fill percentage below which a node is merged with or borrows entries from a sibling.
+	 */
+	int getMergeThreshold()
+	{
+		return mMergeThreshold;
+	}
+
+
+	boolean isLeafUnderflow(int aSize)
+	{
+		return aSize < (long)mLeafSize * mMergeThreshold / 100;
+	}
+
+
+	boolean isNodeUnderflow(int aSize)
+	{
+		return aSize < (long)mNodeSize * mMergeThreshold / 100;
+	}
+
+
+	/**
+	 * Return the multiple of the leaf size a leaf may grow to before it's split immediately instead of when the tree is flushed.
+	 */
+	int getLeafGrowth()
+	{
+		return mLeafGrowth;
+	}
+
+
+	boolean isLeafOversized(int aSize)
+	{
+		return aSize > (long)mLeafSize * mLeafGrowth;
+	}
+
+
 	@Override
 	public String toString()
 	{
-		return "BTreeConfiguration{" + "mSizeThreshold=" + mLimitEntrySize + ", mNodeSize=" + mNodeSize + ", mLeafSize=" + mLeafSize + ", mNodeCompressor=" + mNodeCompressor + ", mLeafCompressor=" + mLeafCompressor + ", root=" + getRoot() + '}';
+		return "BTreeConfiguration{" + "mSizeThreshold=" + mLimitEntrySize + ", mNodeSize=" + mNodeSize + ", mLeafSize=" + mLeafSize + ", mNodeCompressor=" + mNodeCompressor + ", mLeafCompressor=" + mLeafCompressor + ", mMergeThreshold=" + mMergeThreshold + ", mLeafGrowth=" + mLeafGrowth + ", mExternalCompressor=" + mExternalCompressor + ", mAdaptiveCompression=" + mAdaptiveCompression + ", mDictionaryCompression=" + mDictionaryCompression + ", root=" + getRoot() + '}';
 	}
 }
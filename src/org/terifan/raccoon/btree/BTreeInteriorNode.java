@@ -1,8 +1,7 @@
 package org.terifan.raccoon.btree;
 
 import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.List;
 import org.terifan.raccoon.RuntimeDiagnostics;
 import org.terifan.raccoon.RuntimeDiagnostics.Operation;
 import org.terifan.raccoon.blockdevice.BlockPointer;
@@ -12,7 +11,7 @@ import org.terifan.raccoon.btree.ArrayMapEntry.Type;
 
 public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEntry>
 {
-	TreeMap<ArrayMapEntry, BTreeNode> mChildren;
+	ChildTable mChildren;
 
 
 	BTreeInteriorNode(BTree aTree, BTreeInteriorNode aParent, int aLevel, ArrayMap aMap)
@@ -20,25 +19,21 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 		super(aTree, aParent, aLevel);
 
 		mMap = aMap;
-		mChildren = new TreeMap<>((o1, o2) -> o1.compareTo(o2));
+		mChildren = new ChildTable(aMap.size());
 	}
 
 
 	@Override
 	void get(ArrayMapEntry aEntry)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKey(aEntry);
-		loadNearestEntry(entry);
-		getNode(entry).get(aEntry);
+		getNode(mMap.nearestIndex(aEntry)).get(aEntry);
 	}
 
 
 	@Override
 	void put(ArrayMapEntry aEntry)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKey(aEntry);
-		loadNearestEntry(entry);
-		getNode(entry).put(aEntry);
+		getNode(mMap.nearestIndex(aEntry)).put(aEntry);
 		mModified = true;
 
 		if (mMap.getUsedSpace() > mTree.getConfiguration().getNodeSize())
@@ -51,12 +46,10 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 	@Override
 	void remove(ArrayMapEntry aEntry)
 	{
-		ArrayMapEntry entry = new ArrayMapEntry().setKey(aEntry);
-		loadNearestEntry(entry);
-		getNode(entry).remove(aEntry);
+		getNode(mMap.nearestIndex(aEntry)).remove(aEntry);
 		mModified = true;
 
-		if (mMap.getUsedSpace() < mTree.getConfiguration().getNodeSize() / 4)
+		if (mTree.getConfiguration().isNodeUnderflow(mMap.getUsedSpace()))
 		{
 			mTree.schedule(this);
 		}
@@ -93,6 +86,8 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 					}
 
 					node = nextNode;
+
+					mTree.getNodeCache().trim();
 				}
 
 				node.visit(aVisitor, lowestKey, aHighestKey);
@@ -103,16 +98,21 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 	}
 
 
+	/**
+	 * Modified children are written before this node is assembled. Leaves may already have been encoded and compressed in parallel
+	 * by the commit. Replaced blocks are collected and released by the caller since the tree is locked during a commit.
+	 */
 	@Override
-	boolean persist()
+	boolean persist(List<BlockPointer> aReplaced)
 	{
-		for (Entry<ArrayMapEntry, BTreeNode> entry : mChildren.entrySet())
+		for (int i = 0, n = mChildren.size(); i < n; i++)
 		{
-			BTreeNode node = entry.getValue();
-			if (node.persist())
+			BTreeNode node = mChildren.get(i);
+			if (node != null && node.persist(aReplaced))
 			{
-				entry.getKey().setValueInstance(node.mBlockPointer);
-				mMap.put(entry.getKey());
+				ArrayMapEntry entry = mMap.getKey(i);
+				entry.setValueInstance(node.mBlockPointer);
+				mMap.put(entry);
 				mModified = true;
 			}
 		}
@@ -126,32 +126,55 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 		RuntimeDiagnostics.collectStatistics(Operation.FREE_NODE, mBlockPointer);
 		RuntimeDiagnostics.collectStatistics(Operation.WRITE_NODE, 1);
 
-		mTree.freeBlock(mBlockPointer);
+		if (mBlockPointer != null)
+		{
+			aReplaced.add(mBlockPointer);
+		}
 		mBlockPointer = mTree.writeBlock(mMap.array(), mLevel, BlockType.BTREE_NODE);
 		mModified = false;
 
+		mTree.getNodeCache().add(this);
+
 		return true;
 	}
 
 
-	@SuppressWarnings("unchecked")
-	<T extends BTreeNode> T getNode(int aIndex)
+	@Override
+	long collectModifiedLeaves(List<BTreeLeafNode> aLeaves)
 	{
-		ArrayMapEntry entry = mMap.get(aIndex);
-
-		BTreeNode node = getNode(entry);
-
-		return (T)node;
+		long size = 0;
+		for (int i = 0, n = mChildren.size(); i < n; i++)
+		{
+			BTreeNode node = mChildren.get(i);
+			if (node != null)
+			{
+				size += node.collectModifiedLeaves(aLeaves);
+			}
+		}
+		return size;
 	}
 
 
-	BTreeNode getNode(ArrayMapEntry aEntry)
+	/**
+	 * Child nodes are loaded lazily and concurrent readers may race to load the same child. Loaded nodes are registered with the
+	 * node cache after the monitor is released since the cache locks parent nodes when evicting.
+	 */
+	@SuppressWarnings("unchecked")
+	<T extends BTreeNode> T getNode(int aIndex)
 	{
-		BTreeNode childNode = mChildren.get(aEntry);
+		BTreeNode childNode;
 
-		if (childNode == null)
+		synchronized (this)
 		{
-			BlockPointer bp = BlockPointer.fromByteArray(aEntry.getValue());
+			childNode = mChildren.get(aIndex);
+
+			if (childNode != null)
+			{
+				childNode.mReferenced = true;
+				return (T)childNode;
+			}
+
+			BlockPointer bp = BlockPointer.fromByteArray(mMap.get(aIndex).getValue());
 
 			if (bp.getBlockType() == BlockType.BTREE_NODE)
 			{
@@ -160,53 +183,97 @@ public class BTreeInteriorNode extends BTreeNode implements Iterable<ArrayMapEnt
 			}
 			else
 			{
-				childNode = new BTreeLeafNode(mTree, this, new ArrayMap(mTree.readBlock(bp), mTree.getConfiguration().getLeafSize()));
+				childNode = new BTreeLeafNode(mTree, this, mTree.readLeaf(bp));
 				RuntimeDiagnostics.collectStatistics(Operation.READ_LEAF, 1);
 			}
 
 			childNode.mBlockPointer = bp;
 
-			mChildren.put(aEntry, childNode);
+			mChildren.set(aIndex, childNode);
 		}
 
-		return childNode;
+		mTree.getNodeCache().add(childNode);
+
+		return (T)childNode;
 	}
 
 
-	BTreeNode getNearestNode(ArrayMapEntry aEntry)
+	/**
+	 * Insert an entry into this node and the child it refers to.
+	 */
+	void insertChild(ArrayMapEntry aEntry, BTreeNode aNode)
 	{
-		ArrayMapEntry nearestEntry = new ArrayMapEntry().setKey(aEntry.getKey(), aEntry.getKeyType());
+		mMap.insert(aEntry);
+		mChildren.insert(mMap.indexOf(aEntry), aNode);
+	}
 
-		BTreeNode nearestNode = getNode(nearestEntry);
 
-		if (nearestNode.size() == 0)
+	/**
+	 * Remove an entry from this node and the child it refers to.
+	 */
+	void removeChild(int aIndex)
+	{
+		mMap.remove(aIndex);
+		mChildren.remove(aIndex);
+	}
+
+
+	/**
+	 * Detach a clean child node from this node. Interior nodes are only detached if they have no loaded children.
+	 *
+	 * @return false if the node could not be detached
+	 */
+	synchronized boolean evict(BTreeNode aNode)
+	{
+		if (aNode instanceof BTreeInteriorNode v)
 		{
-			int index = loadNearestEntry(nearestEntry);
-			mMap.loadKeyAndValue(index + 1, nearestEntry);
-			nearestNode = getNode(nearestEntry);
+			synchronized (v)
+			{
+				if (!v.mChildren.isEmpty())
+				{
+					return false;
+				}
+				mChildren.detach(aNode);
+				return true;
+			}
 		}
 
-		return nearestNode;
+		mChildren.detach(aNode);
+		return true;
 	}
 
 
-	private int loadNearestEntry(ArrayMapEntry aNearestEntry)
+	synchronized boolean isAttached(BTreeNode aNode)
 	{
-		return mMap.loadNearestEntry(aNearestEntry);
+		return mChildren.indexOf(aNode) != -1;
 	}
 
 
-	int indexOf(BTreeNode aNode)
+	BTreeNode getNearestNode(ArrayMapEntry aEntry)
 	{
-		for (Entry<ArrayMapEntry, BTreeNode> entry : mChildren.entrySet())
+		int index = mMap.nearestIndex(aEntry);
+
+		BTreeNode nearestNode = getNode(index);
+
+		if (nearestNode.size() == 0 && index + 1 < size())
 		{
-			if (entry.getValue() == aNode)
-			{
-				return mMap.indexOf(entry.getKey());
-			}
+			nearestNode = getNode(index + 1);
+		}
+
+		return nearestNode;
+	}
+
+
+	synchronized int indexOf(BTreeNode aNode)
+	{
+		int index = mChildren.indexOf(aNode);
+
+		if (index == -1)
+		{
+			throw new IllegalStateException();
 		}
 
-		throw new IllegalStateException();
+		return index;
 	}
 
 
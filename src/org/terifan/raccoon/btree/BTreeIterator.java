@@ -9,16 +9,19 @@ public class BTreeIterator implements Iterator<Document>
 	private BTree mTree;
 	private boolean mClosed;
 	private Document mNext;
-	private ArrayMapEntry mLastKey;
+	private byte[] mLastKey;
+	private int mLastKeyLength;
 	private BTreeLeafNode mLeafNode;
 	private int mIndexInLeaf;
 	private long mTransaction;
+	private final ArrayMapEntryView mView;
 
 
 	public BTreeIterator(BTree aTree)
 	{
 		mTree = aTree;
 		mTransaction = -1;
+		mView = new ArrayMapEntryView();
 	}
 
 
@@ -45,21 +48,24 @@ public class BTreeIterator implements Iterator<Document>
 		{
 			if (mTransaction != mTree.getUpdateCounter())
 			{
-				mLeafNode = mTree.findLeaf(mLastKey);
-				mIndexInLeaf = mLastKey == null ? 0 : mLeafNode.mMap.findEntryAfter(mLastKey);
+				seek();
 			}
 
-			if (mIndexInLeaf >= mLeafNode.size() && !advance())
+			while (mIndexInLeaf >= mLeafNode.size())
 			{
-				mClosed = true;
-				return null;
+				if (!advance())
+				{
+					setLeaf(null);
+					mClosed = true;
+					return null;
+				}
 			}
 
-			ArrayMapEntry entry = mLeafNode.mMap.get(mIndexInLeaf++);
+			ArrayMapEntryView entry = mLeafNode.mMap.loadView(mIndexInLeaf++, mView);
 
 			mTransaction = mTree.getUpdateCounter();
-			mLastKey = entry;
-			mNext = new Document().fromByteArray(entry.getValue());
+			setLastKey(entry);
+			mNext = unmarshal(entry);
 		}
 
 		Document tmp = mNext;
@@ -68,6 +74,61 @@ public class BTreeIterator implements Iterator<Document>
 	}
 
 
+	/**
+	 * Position the iterator after the last returned key. The leaf is pinned to prevent it from being evicted from the node cache while
+	 * the iterator is positioned on it.
+	 */
+	private void seek()
+	{
+		ArrayMapEntry lastKey = getLastKey();
+
+		do
+		{
+			setLeaf(mTree.findLeaf(lastKey));
+		}
+		while (mLeafNode.mParent != null && !mLeafNode.mParent.isAttached(mLeafNode));
+
+		mIndexInLeaf = lastKey == null ? 0 : mLeafNode.mMap.findEntryAfter(lastKey);
+	}
+
+
+	/**
+	 * Remember the key of the entry returned. The key is copied into a buffer reused by the iterator and an entry is only created
+	 * when the iterator must reposition itself.
+	 */
+	private void setLastKey(ArrayMapEntryView aEntry)
+	{
+		mLastKeyLength = aEntry.getKeyLength();
+
+		if (mLastKey == null || mLastKey.length < mLastKeyLength)
+		{
+			mLastKey = new byte[Math.max(2 * mLastKeyLength, 64)];
+		}
+
+		aEntry.copyKey(mLastKey);
+	}
+
+
+	private ArrayMapEntry getLastKey()
+	{
+		return mLastKey == null ? null : new ArrayMapEntry().setMarshalledKey(mLastKey, 0, mLastKeyLength);
+	}
+
+
+	private void setLeaf(BTreeLeafNode aLeafNode)
+	{
+		if (aLeafNode != null)
+		{
+			mTree.getNodeCache().pin(aLeafNode);
+		}
+		if (mLeafNode != null)
+		{
+			mTree.getNodeCache().unpin(mLeafNode);
+		}
+		mLeafNode = aLeafNode;
+	}
+
+
 	private boolean advance()
 	{
 		BTreeInteriorNode parent = mLeafNode.mParent;
@@ -97,9 +158,16 @@ public class BTreeIterator implements Iterator<Document>
 			child = v.getNode(0);
 		}
 
-		mLeafNode = (BTreeLeafNode)child;
+		setLeaf((BTreeLeafNode)child);
 		mIndexInLeaf = 0;
 
+		if (mLeafNode.mParent != null && !mLeafNode.mParent.isAttached(mLeafNode))
+		{
+			seek();
+		}
+
+		mTree.getNodeCache().trim();
+
 		return true;
 	}
 
@@ -109,11 +177,22 @@ public class BTreeIterator implements Iterator<Document>
 	{
 		if (mLastKey != null)
 		{
-			remove(mLastKey);
+			ArrayMapEntry entry = getLastKey();
+			mTree.get(entry);
+			remove(entry);
 		}
 	}
 
 
+	/**
+	 * Create the document returned by the iterator. The view is only valid during the call.
+	 */
+	protected Document unmarshal(ArrayMapEntryView aEntry)
+	{
+		return aEntry.getValueDocument(new Document());
+	}
+
+
 	protected void remove(ArrayMapEntry aEntry)
 	{
 		mTree.remove(aEntry);
@@ -1,13 +1,19 @@
 package org.terifan.raccoon.btree;
 
+import java.util.List;
 import java.util.function.Consumer;
 import org.terifan.raccoon.RuntimeDiagnostics;
 import org.terifan.raccoon.RuntimeDiagnostics.Operation;
+import org.terifan.raccoon.blockdevice.BlockPointer;
 import org.terifan.raccoon.blockdevice.BlockType;
 
 
 public class BTreeLeafNode extends BTreeNode
 {
+	int mAppendCount;
+	private BTree.PreparedBlock mPrepared;
+
+
 	BTreeLeafNode(BTree aTree, BTreeInteriorNode aParent, ArrayMap aMap)
 	{
 		super(aTree, aParent, 0);
@@ -26,10 +32,28 @@ public class BTreeLeafNode extends BTreeNode
 	@Override
 	void put(ArrayMapEntry aEntry)
 	{
+		boolean append = mMap.isAfterLast(aEntry);
+
 		mMap.insert(aEntry);
 		mModified = true;
 
-		if (mMap.getUsedSpace() > mTree.getConfiguration().getLeafSize())
+		if (append)
+		{
+			mAppendCount++;
+			mTree.setAppendLeaf(this);
+		}
+		else if (aEntry.getState() == OpState.INSERT)
+		{
+			mAppendCount = 0;
+		}
+
+		int storedSize = getStoredSize();
+
+		if (mTree.getConfiguration().isLeafOversized(storedSize))
+		{
+			mTree.splitLeaf(this);
+		}
+		else if (storedSize > mTree.getConfiguration().getLeafSize())
 		{
 			mTree.schedule(this);
 		}
@@ -42,13 +66,32 @@ public class BTreeLeafNode extends BTreeNode
 		mMap.remove(aEntry);
 		mModified = true;
 
-		if (mMap.getUsedSpace() < mTree.getConfiguration().getLeafSize() / 4)
+		if (mTree.getConfiguration().isLeafUnderflow(getStoredSize()))
 		{
 			mTree.schedule(this);
 		}
 	}
 
 
+	/**
+	 * Return true if most entries in this leaf were inserted in ascending order after the last key, as happens when keys are
+	 * generated sequentially.
+	 */
+	boolean isAppending()
+	{
+		return mAppendCount > mMap.size() / 2;
+	}
+
+
+	/**
+	 * Return the approximate size of this leaf when persisted. Split and merge decisions are based on this size.
+	 */
+	int getStoredSize()
+	{
+		return LeafFormat.estimateSize(mMap);
+	}
+
+
 	@Override
 	void visit(BTreeVisitor aVisitor, ArrayMapEntry aLowestKey, ArrayMapEntry aHighestKey)
 	{
@@ -63,7 +106,7 @@ public class BTreeLeafNode extends BTreeNode
 
 
 	@Override
-	boolean persist()
+	boolean persist(List<BlockPointer> aReplaced)
 	{
 		if (!mModified)
 		{
@@ -74,16 +117,60 @@ public class BTreeLeafNode extends BTreeNode
 		RuntimeDiagnostics.collectStatistics(Operation.FREE_LEAF, mBlockPointer);
 		RuntimeDiagnostics.collectStatistics(Operation.WRITE_LEAF, 1);
 
-		mTree.freeBlock(mBlockPointer);
-		mBlockPointer = mTree.writeBlock(mMap.array(), 0, BlockType.BTREE_LEAF);
+		if (mBlockPointer != null)
+		{
+			aReplaced.add(mBlockPointer);
+		}
+		BTree.PreparedBlock block = mPrepared != null ? mPrepared : mTree.prepareBlock(LeafFormat.encode(mMap), 0);
+		mPrepared = null;
+		mBlockPointer = mTree.writeBlock(block, BlockType.BTREE_LEAF);
 		mModified = false;
 
+		mTree.getNodeCache().add(this);
+
 		return true;
 	}
 
 
+	@Override
+	long collectModifiedLeaves(List<BTreeLeafNode> aLeaves)
+	{
+		if (!mModified)
+		{
+			return 0;
+		}
+
+		aLeaves.add(this);
+
+		return mMap.getUsedSpace();
+	}
+
+
+	/**
+	 * Encode and compress this leaf ahead of the persist. Leaves are prepared concurrently by the commit while the block is
+	 * written by persist.
+	 */
+	void prepare()
+	{
+		mPrepared = mTree.prepareBlock(LeafFormat.encode(mMap), 0);
+	}
+
+
 	public void forEachEntry(Consumer<? super ArrayMapEntry> aConsumer)
 	{
 		mMap.forEach(aConsumer);
 	}
+
+
+	/**
+	 * Visit all entries using a single view instance. The view must not be retained by the consumer.
+	 */
+	public void forEachView(Consumer<? super ArrayMapEntryView> aConsumer)
+	{
+		ArrayMapEntryView view = new ArrayMapEntryView();
+		for (int i = 0, n = mMap.size(); i < n; i++)
+		{
+			aConsumer.accept(mMap.loadView(i, view));
+		}
+	}
 }
@@ -1,5 +1,6 @@
 package org.terifan.raccoon.btree;
 
+import java.util.List;
 import org.terifan.raccoon.blockdevice.BlockPointer;
 
 
@@ -11,6 +12,10 @@ public abstract class BTreeNode
 	ArrayMap mMap;
 	boolean mModified;
 	int mLevel;
+	int mCacheSize;
+	int mPinCount;
+	boolean mReferenced;
+	int mSlotHint;
 
 
 	protected BTreeNode(BTree aTree, BTreeInteriorNode aParent, int aLevel)
@@ -33,7 +38,19 @@ public abstract class BTreeNode
 	abstract void visit(BTreeVisitor aVisitor, ArrayMapEntry aLowestKey, ArrayMapEntry aHighestKey);
 
 
-	abstract boolean persist();
+	/**
+	 * Write this node and any modified descendants. Blocks replaced by new versions are added to the list and must be released by
+	 * the caller once the persist has completed.
+	 *
+	 * @return true if the node was written
+	 */
+	abstract boolean persist(List<BlockPointer> aReplaced);
+
+
+	/**
+	 * Add the modified leaves of this subtree to the list and return their total size in bytes.
+	 */
+	abstract long collectModifiedLeaves(List<BTreeLeafNode> aLeaves);
 
 
 	public int size()
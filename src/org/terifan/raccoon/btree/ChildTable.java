@@ -0,0 +1,163 @@
+package org.terifan.raccoon.btree;
+
+import java.util.Arrays;
+
+
+/**
+ * Loaded children of an interior node addressed by the index of their entry in the node's ArrayMap. Slots of children not loaded
+ * are null. The table must be updated whenever entries are inserted into or removed from the map.
+ * <p>
+ * Each node remembers its slot so that finding the index of a node, as done when moving to a sibling, is constant time. The
+ * slots are updated when entries are shifted by an insert or remove.
+ */
+final class ChildTable
+{
+	private BTreeNode[] mNodes;
+	private int mSize;
+	private int mLoaded;
+
+
+	ChildTable(int aSize)
+	{
+		mNodes = new BTreeNode[Math.max(4, aSize)];
+		mSize = aSize;
+	}
+
+
+	BTreeNode get(int aIndex)
+	{
+		return mNodes[aIndex];
+	}
+
+
+	void set(int aIndex, BTreeNode aNode)
+	{
+		if (mNodes[aIndex] == null)
+		{
+			mLoaded++;
+		}
+		if (aNode == null)
+		{
+			mLoaded--;
+		}
+		else
+		{
+			aNode.mSlotHint = aIndex;
+		}
+		mNodes[aIndex] = aNode;
+	}
+
+
+	/**
+	 * Insert a slot shifting the slots at and after the index one step.
+	 */
+	void insert(int aIndex, BTreeNode aNode)
+	{
+		if (mSize == mNodes.length)
+		{
+			mNodes = Arrays.copyOf(mNodes, 2 * mNodes.length);
+		}
+		System.arraycopy(mNodes, aIndex, mNodes, aIndex + 1, mSize - aIndex);
+		mNodes[aIndex] = aNode;
+		mSize++;
+		if (aNode != null)
+		{
+			mLoaded++;
+		}
+		updateHints(aIndex);
+	}
+
+
+	void remove(int aIndex)
+	{
+		if (mNodes[aIndex] != null)
+		{
+			mLoaded--;
+		}
+		System.arraycopy(mNodes, aIndex + 1, mNodes, aIndex, mSize - aIndex - 1);
+		mNodes[--mSize] = null;
+		updateHints(aIndex);
+	}
+
+
+	/**
+	 * Clear the slot of a loaded node leaving the entry in place.
+	 */
+	void detach(BTreeNode aNode)
+	{
+		int index = indexOf(aNode);
+		if (index != -1)
+		{
+			set(index, null);
+		}
+	}
+
+
+	/**
+	 * Remove the slots from the index to the end of this table and return them in a new table.
+	 */
+	ChildTable split(int aIndex)
+	{
+		ChildTable table = new ChildTable(mSize - aIndex);
+		for (int i = aIndex; i < mSize; i++)
+		{
+			if (mNodes[i] != null)
+			{
+				table.set(i - aIndex, mNodes[i]);
+				set(i, null);
+			}
+		}
+		mSize = aIndex;
+		return table;
+	}
+
+
+	/**
+	 * Return the index of the node or -1 if the node isn't loaded in this table.
+	 */
+	int indexOf(BTreeNode aNode)
+	{
+		int hint = aNode.mSlotHint;
+		if (hint < mSize && mNodes[hint] == aNode)
+		{
+			return hint;
+		}
+
+		for (int i = 0; i < mSize; i++)
+		{
+			if (mNodes[i] == aNode)
+			{
+				aNode.mSlotHint = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
+
+	private void updateHints(int aFromIndex)
+	{
+		for (int i = aFromIndex; i < mSize; i++)
+		{
+			if (mNodes[i] != null)
+			{
+				mNodes[i].mSlotHint = i;
+			}
+		}
+	}
+
+
+	int size()
+	{
+		return mSize;
+	}
+
+
+	/**
+	 * Return true if no children are loaded.
+	 */
+	boolean isEmpty()
+	{
+		return mLoaded == 0;
+	}
+}
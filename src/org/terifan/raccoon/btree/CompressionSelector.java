@@ -0,0 +1,131 @@
+package org.terifan.raccoon.btree;
+
+import java.util.zip.Deflater;
+import org.terifan.raccoon.blockdevice.compressor.CompressorAlgorithm;
+
+
+/**
+ * Chooses the compressor of each written block from how well recent blocks of the same kind compressed. Every SAMPLE_INTERVAL
+ * block is compressed with a fast probe and the ratio is averaged per kind. Kinds where compression saves too little
+ * are stored raw and kinds that compress very well are written with a stronger algorithm.
+ */
+final class CompressionSelector
+{
+	final static int LEAF = 0;
+	final static int NODE = 1;
+	final static int EXTERNAL = 2;
+
+	private final static int WARMUP_SAMPLES = 4;
+	private final static int SAMPLE_INTERVAL = 16;
+	private final static double SMOOTHING = 0.25;
+	private final static double RAW_RATIO = 0.9;
+	private final static double STRONG_RATIO = 0.35;
+
+	private final Statistics[] mStatistics = {new Statistics(), new Statistics(), new Statistics()};
+
+
+	/**
+	 * Return the compressor to use for the block.
+	 *
+	 * @param aKind one of LEAF, NODE or EXTERNAL
+	 * @param aCompressor the compressor configured for the kind of block
+	 */
+	int select(int aKind, int aCompressor, byte[] aContent)
+	{
+		if (aCompressor == CompressorAlgorithm.NONE.ordinal() || aContent.length == 0)
+		{
+			return aCompressor;
+		}
+
+		Statistics statistics = mStatistics[aKind];
+
+		if (statistics.nextIsSample())
+		{
+			statistics.update((double)statistics.probe(aContent) / aContent.length);
+		}
+
+		double ratio = statistics.getRatio();
+
+		if (ratio > RAW_RATIO)
+		{
+			return CompressorAlgorithm.NONE.ordinal();
+		}
+		if (ratio < STRONG_RATIO && (aCompressor == CompressorAlgorithm.ZLE.ordinal() || aCompressor == CompressorAlgorithm.LZJB.ordinal() || aCompressor == CompressorAlgorithm.DEFLATE_FAST.ordinal()))
+		{
+			return CompressorAlgorithm.DEFLATE_DEFAULT.ordinal();
+		}
+
+		return aCompressor;
+	}
+
+
+	@Override
+	public String toString()
+	{
+		return "CompressionSelector{leaf=" + mStatistics[LEAF] + ", node=" + mStatistics[NODE] + ", external=" + mStatistics[EXTERNAL] + "}";
+	}
+
+
+	private static class Statistics
+	{
+		private long mBlocks;
+		private long mSamples;
+		private double mRatio = 1;
+		private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+		private final byte[] mBuffer = new byte[4096];
+
+
+		synchronized boolean nextIsSample()
+		{
+			return mBlocks++ < WARMUP_SAMPLES || mBlocks % SAMPLE_INTERVAL == 0;
+		}
+
+
+		synchronized void update(double aRatio)
+		{
+			if (mSamples++ == 0)
+			{
+				mRatio = aRatio;
+			}
+			else
+			{
+				mRatio += SMOOTHING * (aRatio - mRatio);
+			}
+		}
+
+
+		synchronized double getRatio()
+		{
+			return mRatio;
+		}
+
+
+		/**
+		 * Return the compressed length of the content. The deflater of the kind is reused and guarded by its own lock so that a probe
+		 * doesn't block threads only reading the statistics.
+		 */
+		int probe(byte[] aContent)
+		{
+			synchronized (mDeflater)
+			{
+				mDeflater.reset();
+				mDeflater.setInput(aContent);
+				mDeflater.finish();
+
+				int length = 0;
+				while (!mDeflater.finished())
+				{
+					length += mDeflater.deflate(mBuffer);
+				}
+				return length;
+			}
+		}
+
+
+		@Override
+		public synchronized String toString()
+		{
+			return String.format("{blocks=%d, samples=%d, ratio=%.2f}", mBlocks, mSamples, mRatio);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package org.terifan.raccoon.btree;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Builds a preset dictionary for deflate from sample leaves. The samples are divided into segments and the segments containing
+ * byte sequences found in the most samples are selected greedily, ignoring sequences already covered by selected segments. The
+ * most valuable segments are placed last in the dictionary since deflate encodes matches close to the data with shorter distances.
+ */
+final class DictionaryTrainer
+{
+	private final static int SEQUENCE_LENGTH = 8;
+	private final static int SEGMENT_LENGTH = 64;
+
+
+	private DictionaryTrainer()
+	{
+	}
+
+
+	/**
+	 * Return a dictionary of at most the given size or an empty array if the samples share no sequences.
+	 */
+	static byte[] train(List<byte[]> aSamples, int aMaxLength)
+	{
+		HashMap<Long, Integer> frequency = new HashMap<>();
+
+		for (byte[] sample : aSamples)
+		{
+			HashSet<Long> seen = new HashSet<>();
+			for (int i = 0; i + SEQUENCE_LENGTH <= sample.length; i++)
+			{
+				long sequence = readSequence(sample, i);
+				if (seen.add(sequence))
+				{
+					frequency.merge(sequence, 1, Integer::sum);
+				}
+			}
+		}
+
+		PriorityQueue<Segment> queue = new PriorityQueue<>((a, b) -> Long.compare(b.mScore, a.mScore));
+
+		for (byte[] sample : aSamples)
+		{
+			for (int offset = 0; offset + SEQUENCE_LENGTH <= sample.length; offset += SEGMENT_LENGTH)
+			{
+				Segment segment = new Segment(sample, offset, Math.min(SEGMENT_LENGTH, sample.length - offset));
+				segment.mScore = score(segment, frequency);
+				if (segment.mScore > 0)
+				{
+					queue.add(segment);
+				}
+			}
+		}
+
+		ArrayList<Segment> selected = new ArrayList<>();
+		int length = 0;
+
+		while (!queue.isEmpty() && length < aMaxLength)
+		{
+			Segment segment = queue.poll();
+			long score = score(segment, frequency);
+
+			if (score <= 0)
+			{
+				continue;
+			}
+			if (!queue.isEmpty() && score < queue.peek().mScore)
+			{
+				segment.mScore = score;
+				queue.add(segment);
+				continue;
+			}
+
+			for (int i = segment.mOffset; i + SEQUENCE_LENGTH <= segment.mOffset + segment.mLength; i++)
+			{
+				frequency.remove(readSequence(segment.mSample, i));
+			}
+
+			selected.add(segment);
+			length += segment.mLength;
+		}
+
+		ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+		for (int i = selected.size(); --i >= 0;)
+		{
+			Segment segment = selected.get(i);
+			int skip = Math.max(0, dictionary.size() + segment.mLength - aMaxLength);
+			dictionary.write(segment.mSample, segment.mOffset + skip, segment.mLength - skip);
+		}
+
+		return dictionary.toByteArray();
+	}
+
+
+	/**
+	 * Sum the number of other samples containing each sequence of the segment.
+	 */
+	private static long score(Segment aSegment, HashMap<Long, Integer> aFrequency)
+	{
+		HashSet<Long> seen = new HashSet<>();
+		long score = 0;
+
+		for (int i = aSegment.mOffset; i + SEQUENCE_LENGTH <= aSegment.mOffset + aSegment.mLength; i++)
+		{
+			long sequence = readSequence(aSegment.mSample, i);
+			if (seen.add(sequence))
+			{
+				score += aFrequency.getOrDefault(sequence, 1) - 1;
+			}
+		}
+
+		return score;
+	}
+
+
+	private static long readSequence(byte[] aBuffer, int aOffset)
+	{
+		long value = 0;
+		for (int i = 0; i < SEQUENCE_LENGTH; i++)
+		{
+			value = (value << 8) | (aBuffer[aOffset + i] & 0xFF);
+		}
+		return value;
+	}
+
+
+	private static class Segment
+	{
+		final byte[] mSample;
+		final int mOffset;
+		final int mLength;
+		long mScore;
+
+
+		Segment(byte[] aSample, int aOffset, int aLength)
+		{
+			mSample = aSample;
+			mOffset = aOffset;
+			mLength = aLength;
+		}
+	}
+}
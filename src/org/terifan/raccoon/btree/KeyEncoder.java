@@ -0,0 +1,436 @@
+package org.terifan.raccoon.btree;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.UUID;
+import org.terifan.raccoon.document.Array;
+import org.terifan.raccoon.document.Document;
+import org.terifan.raccoon.document.ObjectId;
+
+
+/**
+ * Encodes key values into byte sequences where unsigned lexicographic comparison of the bytes give the same order as the values.
+ * <ul>
+ * <li>integral numbers are stored big-endian with the sign bit flipped</li>
+ * <li>floating point numbers are stored with the sign bit flipped if positive and all bits flipped if negative</li>
+ * <li>strings are stored as UTF-8</li>
+ * <li>arrays and documents are stored as a sequence of tagged elements followed by a zero terminator. Variable length elements
+ * escape zero bytes as 0x00 0xFF and are terminated by 0x00 0x00. Document fields are written as a field marker and the field name
+ * followed by the value</li>
+ * <li>numeric elements of all types share one tag and are stored as the nearest double, the difference between an integral value
+ * and that double, and the type of the number. Numbers are ordered by value and equal values of different types by their
+ * type</li>
+ * </ul>
+ * Elements of different types are ordered by their tag. Other types have no order preserving encoding and are rejected.
+ */
+final class KeyEncoder
+{
+	private final static int TAG_END = 0;
+	private final static int TAG_FIELD = 1;
+	private final static int TAG_NULL = 2;
+	private final static int TAG_FALSE = 3;
+	private final static int TAG_TRUE = 4;
+	private final static int TAG_NUMBER = 5;
+	private final static int TAG_STRING = 6;
+	private final static int TAG_OBJECTID = 7;
+	private final static int TAG_UUID = 8;
+	private final static int TAG_BYTES = 9;
+	private final static int TAG_ARRAY = 10;
+	private final static int TAG_DOCUMENT = 11;
+
+	private final static int NUMBER_BYTE = 0;
+	private final static int NUMBER_SHORT = 1;
+	private final static int NUMBER_INT = 2;
+	private final static int NUMBER_LONG = 3;
+	private final static int NUMBER_FLOAT = 4;
+	private final static int NUMBER_DOUBLE = 5;
+
+
+	private KeyEncoder()
+	{
+	}
+
+
+	static int compare(byte[] aKey, byte[] aOtherKey, int aOffset, int aLength)
+	{
+		return Arrays.compareUnsigned(aKey, 0, aKey.length, aOtherKey, aOffset, aOffset + aLength);
+	}
+
+
+	/**
+	 * Return the shortest prefix of the high key that still compares greater than the low key. The low key must be less than the
+	 * high key. UTF-8 keys are only cut at code point boundaries so the separator always decode to a valid string.
+	 */
+	static byte[] shortestSeparator(byte[] aLowKey, byte[] aHighKey, boolean aUTF8)
+	{
+		int i = Arrays.mismatch(aLowKey, aHighKey);
+
+		assert i >= 0 && i < aHighKey.length && (i == aLowKey.length || (aLowKey[i] & 0xFF) < (aHighKey[i] & 0xFF));
+
+		int end = i + 1;
+		while (aUTF8 && end < aHighKey.length && (aHighKey[end] & 0xC0) == 0x80)
+		{
+			end++;
+		}
+
+		return Arrays.copyOf(aHighKey, end);
+	}
+
+
+	static byte[] encodeLong(long aValue)
+	{
+		return putLong(new byte[8], 0, aValue ^ Long.MIN_VALUE);
+	}
+
+
+	static long decodeLong(byte[] aBuffer, int aOffset)
+	{
+		return getLong(aBuffer, aOffset) ^ Long.MIN_VALUE;
+	}
+
+
+	static byte[] encodeDouble(double aValue)
+	{
+		return putLong(new byte[8], 0, sortableBits(aValue));
+	}
+
+
+	static double decodeDouble(byte[] aBuffer, int aOffset)
+	{
+		long bits = getLong(aBuffer, aOffset);
+		return Double.longBitsToDouble(bits < 0 ? bits ^ Long.MIN_VALUE : ~bits);
+	}
+
+
+	static byte[] encodeString(String aValue)
+	{
+		return aValue.getBytes(StandardCharsets.UTF_8);
+	}
+
+
+	static String decodeString(byte[] aBuffer)
+	{
+		return new String(aBuffer, StandardCharsets.UTF_8);
+	}
+
+
+	static byte[] encodeUUID(UUID aValue)
+	{
+		byte[] buffer = new byte[16];
+		putLong(buffer, 0, aValue.getMostSignificantBits() ^ Long.MIN_VALUE);
+		putLong(buffer, 8, aValue.getLeastSignificantBits() ^ Long.MIN_VALUE);
+		return buffer;
+	}
+
+
+	static UUID decodeUUID(byte[] aBuffer, int aOffset)
+	{
+		return new UUID(getLong(aBuffer, aOffset) ^ Long.MIN_VALUE, getLong(aBuffer, aOffset + 8) ^ Long.MIN_VALUE);
+	}
+
+
+	static byte[] encodeArray(Array aArray)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeArray(out, aArray);
+		return out.toByteArray();
+	}
+
+
+	static Array decodeArray(byte[] aBuffer)
+	{
+		int[] position = new int[1];
+		return readArray(aBuffer, position);
+	}
+
+
+	static byte[] encodeDocument(Document aDocument)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeDocument(out, aDocument);
+		return out.toByteArray();
+	}
+
+
+	static Document decodeDocument(byte[] aBuffer)
+	{
+		int[] position = new int[1];
+		return readDocument(aBuffer, position);
+	}
+
+
+	private static void writeArray(ByteArrayOutputStream aOutput, Array aArray)
+	{
+		for (Object value : aArray)
+		{
+			writeElement(aOutput, value);
+		}
+		aOutput.write(TAG_END);
+	}
+
+
+	private static void writeDocument(ByteArrayOutputStream aOutput, Document aDocument)
+	{
+		for (Entry<String, Object> entry : aDocument.entrySet())
+		{
+			aOutput.write(TAG_FIELD);
+			writeBytes(aOutput, encodeString(entry.getKey()));
+			writeElement(aOutput, entry.getValue());
+		}
+		aOutput.write(TAG_END);
+	}
+
+
+	private static void writeElement(ByteArrayOutputStream aOutput, Object aValue)
+	{
+		if (aValue == null)
+		{
+			aOutput.write(TAG_NULL);
+		}
+		else if (aValue instanceof Boolean v)
+		{
+			aOutput.write(v ? TAG_TRUE : TAG_FALSE);
+		}
+		else if (aValue instanceof Byte v)
+		{
+			writeNumber(aOutput, v, NUMBER_BYTE);
+		}
+		else if (aValue instanceof Short v)
+		{
+			writeNumber(aOutput, v, NUMBER_SHORT);
+		}
+		else if (aValue instanceof Integer v)
+		{
+			writeNumber(aOutput, v, NUMBER_INT);
+		}
+		else if (aValue instanceof Long v)
+		{
+			writeNumber(aOutput, v, NUMBER_LONG);
+		}
+		else if (aValue instanceof Float v)
+		{
+			writeNumber(aOutput, v, 0, NUMBER_FLOAT);
+		}
+		else if (aValue instanceof Double v)
+		{
+			writeNumber(aOutput, v, 0, NUMBER_DOUBLE);
+		}
+		else if (aValue instanceof String v)
+		{
+			aOutput.write(TAG_STRING);
+			writeBytes(aOutput, encodeString(v));
+		}
+		else if (aValue instanceof ObjectId v)
+		{
+			aOutput.write(TAG_OBJECTID);
+			aOutput.writeBytes(v.toByteArray());
+		}
+		else if (aValue instanceof UUID v)
+		{
+			aOutput.write(TAG_UUID);
+			aOutput.writeBytes(encodeUUID(v));
+		}
+		else if (aValue instanceof byte[] v)
+		{
+			aOutput.write(TAG_BYTES);
+			writeBytes(aOutput, v);
+		}
+		else if (aValue instanceof Array v)
+		{
+			aOutput.write(TAG_ARRAY);
+			writeArray(aOutput, v);
+		}
+		else if (aValue instanceof Document v)
+		{
+			aOutput.write(TAG_DOCUMENT);
+			writeDocument(aOutput, v);
+		}
+		else
+		{
+			throw new IllegalArgumentException("Unsupported key element type: " + aValue.getClass().getName());
+		}
+	}
+
+
+	private static Array readArray(byte[] aBuffer, int[] aPosition)
+	{
+		Array array = new Array();
+		while (aBuffer[aPosition[0]] != TAG_END)
+		{
+			array.add(readElement(aBuffer, aPosition));
+		}
+		aPosition[0]++;
+		return array;
+	}
+
+
+	private static Document readDocument(byte[] aBuffer, int[] aPosition)
+	{
+		Document document = new Document();
+		while (aBuffer[aPosition[0]++] != TAG_END)
+		{
+			String key = decodeString(readBytes(aBuffer, aPosition));
+			document.put(key, readElement(aBuffer, aPosition));
+		}
+		return document;
+	}
+
+
+	private static Object readElement(byte[] aBuffer, int[] aPosition)
+	{
+		int tag = aBuffer[aPosition[0]++];
+		int offset = aPosition[0];
+
+		switch (tag)
+		{
+			case TAG_NULL:
+				return null;
+			case TAG_FALSE:
+				return false;
+			case TAG_TRUE:
+				return true;
+			case TAG_NUMBER:
+				aPosition[0] += 11;
+				return readNumber(aBuffer, offset);
+			case TAG_STRING:
+				return decodeString(readBytes(aBuffer, aPosition));
+			case TAG_OBJECTID:
+				aPosition[0] += 12;
+				return ObjectId.fromByteArray(Arrays.copyOfRange(aBuffer, offset, offset + 12));
+			case TAG_UUID:
+				aPosition[0] += 16;
+				return decodeUUID(aBuffer, offset);
+			case TAG_BYTES:
+				return readBytes(aBuffer, aPosition);
+			case TAG_ARRAY:
+				return readArray(aBuffer, aPosition);
+			case TAG_DOCUMENT:
+				return readDocument(aBuffer, aPosition);
+			default:
+				throw new IllegalArgumentException("Illegal key element tag: " + tag);
+		}
+	}
+
+
+	/**
+	 * Write an integral number as the nearest double and the difference to that double. The difference is at most half the distance
+	 * between two doubles of the magnitude of a long and fits in 16 bits.
+	 */
+	private static void writeNumber(ByteArrayOutputStream aOutput, long aValue, int aType)
+	{
+		double value = aValue;
+		long residual = value >= 0x1p63 ? aValue - Long.MAX_VALUE - 1 : aValue - (long)value;
+
+		writeNumber(aOutput, value, (int)residual, aType);
+	}
+
+
+	private static void writeNumber(ByteArrayOutputStream aOutput, double aValue, int aResidual, int aType)
+	{
+		aOutput.write(TAG_NUMBER);
+		aOutput.writeBytes(encodeDouble(aValue));
+		aOutput.write((aResidual >> 8) ^ 0x80);
+		aOutput.write(aResidual);
+		aOutput.write(aType);
+	}
+
+
+	private static Object readNumber(byte[] aBuffer, int aOffset)
+	{
+		double value = decodeDouble(aBuffer, aOffset);
+		int residual = (short)((((aBuffer[aOffset + 8] & 0xFF) ^ 0x80) << 8) | (aBuffer[aOffset + 9] & 0xFF));
+		int type = aBuffer[aOffset + 10];
+
+		if (type == NUMBER_FLOAT)
+		{
+			return (float)value;
+		}
+		if (type == NUMBER_DOUBLE)
+		{
+			return value;
+		}
+
+		long integral = value >= 0x1p63 ? Long.MAX_VALUE + residual + 1 : (long)value + residual;
+
+		switch (type)
+		{
+			case NUMBER_BYTE:
+				return (byte)integral;
+			case NUMBER_SHORT:
+				return (short)integral;
+			case NUMBER_INT:
+				return (int)integral;
+			case NUMBER_LONG:
+				return integral;
+			default:
+				throw new IllegalArgumentException("Illegal key number type: " + type);
+		}
+	}
+
+
+	/**
+	 * Write a variable length sequence escaping zero bytes and appending a terminator.
+	 */
+	private static void writeBytes(ByteArrayOutputStream aOutput, byte[] aBuffer)
+	{
+		for (byte b : aBuffer)
+		{
+			aOutput.write(b);
+			if (b == 0)
+			{
+				aOutput.write(0xFF);
+			}
+		}
+		aOutput.write(0);
+		aOutput.write(0);
+	}
+
+
+	private static byte[] readBytes(byte[] aBuffer, int[] aPosition)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = aPosition[0];; i++)
+		{
+			byte b = aBuffer[i];
+			if (b == 0)
+			{
+				if (aBuffer[++i] == 0)
+				{
+					aPosition[0] = i + 1;
+					return out.toByteArray();
+				}
+			}
+			out.write(b);
+		}
+	}
+
+
+	private static long sortableBits(double aValue)
+	{
+		long bits = Double.doubleToLongBits(aValue);
+		return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+	}
+
+
+	private static byte[] putLong(byte[] aBuffer, int aOffset, long aValue)
+	{
+		for (int i = 7; i >= 0; i--, aValue >>>= 8)
+		{
+			aBuffer[aOffset + i] = (byte)aValue;
+		}
+		return aBuffer;
+	}
+
+
+	private static long getLong(byte[] aBuffer, int aOffset)
+	{
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			value = (value << 8) | (aBuffer[aOffset + i] & 0xFF);
+		}
+		return value;
+	}
+}
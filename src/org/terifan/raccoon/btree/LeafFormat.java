@@ -0,0 +1,285 @@
+package org.terifan.raccoon.btree;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Serializes leaf nodes in a compact format where the prefix shared by all keys is stored once. The leaf is expanded into an
+ * ArrayMap when loaded.
+ * <pre>
+ * Data layout:
+ *
+ *    1 byte  - format
+ *    varint  - prefix length
+ *    n bytes - prefix
+ *    varint  - entry count
+ *    (entry 1..n)
+ *    varint  - key suffix length
+ *    n bytes - key suffix
+ *    varint  - value length
+ *    n bytes - value
+ * </pre>
+ * Keys and values are stored in their marshalled form including the type header. When the tree has a trained dictionary the
+ * encoded leaf is deflated with the dictionary as preset and stored with the dictionary format, the encoded length and the
+ * deflated data.
+ */
+final class LeafFormat
+{
+	final static int FORMAT_PREFIX = 1;
+	final static int FORMAT_DICTIONARY = 2;
+
+	/**
+	 * Approximate number of bytes saved per entry by replacing the fixed entry header and pointer of the ArrayMap with two varints.
+	 */
+	private final static int ENTRY_OVERHEAD_SAVING = ArrayMap.ENTRY_HEADER_SIZE + ArrayMap.ENTRY_POINTER_SIZE - 3;
+
+
+	private LeafFormat()
+	{
+	}
+
+
+	/**
+	 * Return the approximate size of the map when written in this format. Keys are sorted so the prefix shared by all keys is the
+	 * prefix shared by the first and last key.
+	 */
+	static int estimateSize(ArrayMap aMap)
+	{
+		int count = aMap.size();
+
+		if (count < 2)
+		{
+			return aMap.getUsedSpace();
+		}
+
+		int prefix = aMap.commonKeyPrefixLength(0, count - 1);
+
+		return aMap.getUsedSpace() - count * (prefix + ENTRY_OVERHEAD_SAVING) + prefix;
+	}
+
+
+	static byte[] encode(ArrayMap aMap)
+	{
+		int count = aMap.size();
+		int prefix = count < 2 ? 0 : aMap.commonKeyPrefixLength(0, count - 1);
+		byte[] buffer = aMap.array();
+
+		Output out = new Output(aMap.getUsedSpace() + 16);
+		out.write(FORMAT_PREFIX);
+		out.writeVarInt(prefix);
+		if (prefix > 0)
+		{
+			int entryOffset = aMap.readEntryOffset(0);
+			out.write(buffer, aMap.readKeyOffset(entryOffset), prefix);
+		}
+		out.writeVarInt(count);
+
+		for (int i = 0; i < count; i++)
+		{
+			int entryOffset = aMap.readEntryOffset(i);
+			int keyOffset = aMap.readKeyOffset(entryOffset);
+			int keyLength = aMap.readKeyLength(entryOffset);
+			int valueOffset = aMap.readValueOffset(entryOffset);
+			int valueLength = aMap.readValueLength(entryOffset);
+
+			out.writeVarInt(keyLength - prefix);
+			out.write(buffer, keyOffset + prefix, keyLength - prefix);
+			out.writeVarInt(valueLength);
+			out.write(buffer, valueOffset, valueLength);
+		}
+
+		return out.toByteArray();
+	}
+
+
+	static ArrayMap decode(byte[] aBuffer, int aCapacityGrowth)
+	{
+		int[] position = new int[1];
+
+		if (aBuffer[position[0]++] != FORMAT_PREFIX)
+		{
+			throw new IllegalArgumentException("Unsupported leaf format: " + aBuffer[0]);
+		}
+
+		int prefixLength = readVarInt(aBuffer, position);
+		int prefixOffset = position[0];
+		position[0] += prefixLength;
+		int count = readVarInt(aBuffer, position);
+		int entriesOffset = position[0];
+
+		int capacity = ArrayMap.HEADER_SIZE;
+		for (int i = 0; i < count; i++)
+		{
+			int keyLength = readVarInt(aBuffer, position);
+			position[0] += keyLength;
+			int valueLength = readVarInt(aBuffer, position);
+			position[0] += valueLength;
+			capacity += ArrayMap.ENTRY_HEADER_SIZE + ArrayMap.ENTRY_POINTER_SIZE + prefixLength + keyLength + valueLength;
+		}
+
+		ArrayMap map = new ArrayMap(Math.max(capacity, aCapacityGrowth), aCapacityGrowth);
+
+		// entries are stored in key order and copied straight into the map
+		position[0] = entriesOffset;
+		for (int i = 0; i < count; i++)
+		{
+			int suffixLength = readVarInt(aBuffer, position);
+			int suffixOffset = position[0];
+			position[0] += suffixLength;
+
+			int valueLength = readVarInt(aBuffer, position);
+			map.append(aBuffer, prefixOffset, prefixLength, suffixOffset, suffixLength, position[0], valueLength);
+			position[0] += valueLength;
+		}
+
+		assert map.integrityCheck() == null : map.integrityCheck();
+
+		return map;
+	}
+
+
+	/**
+	 * Deflate an encoded leaf using a preset dictionary. The result contains the format, the length of the encoded leaf and the
+	 * deflated data.
+	 */
+	static byte[] compress(byte[] aEncoded, byte[] aDictionary)
+	{
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try
+		{
+			deflater.setDictionary(aDictionary);
+			deflater.setInput(aEncoded);
+			deflater.finish();
+
+			Output out = new Output(aEncoded.length / 2 + 16);
+			out.write(FORMAT_DICTIONARY);
+			out.writeVarInt(aEncoded.length);
+
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished())
+			{
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+
+			return out.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+
+	/**
+	 * Inflate a leaf compressed with a preset dictionary returning the encoded leaf.
+	 */
+	static byte[] decompress(byte[] aBuffer, byte[] aDictionary)
+	{
+		if (aDictionary == null)
+		{
+			throw new IllegalStateException("Leaf compressed with a dictionary but the tree has no dictionary");
+		}
+
+		int[] position = {1};
+		byte[] encoded = new byte[readVarInt(aBuffer, position)];
+
+		Inflater inflater = new Inflater(true);
+		try
+		{
+			inflater.setDictionary(aDictionary);
+			inflater.setInput(aBuffer, position[0], aBuffer.length - position[0]);
+
+			for (int offset = 0; offset < encoded.length;)
+			{
+				int length = inflater.inflate(encoded, offset, encoded.length - offset);
+				if (length == 0 && (inflater.finished() || inflater.needsInput()))
+				{
+					throw new IllegalStateException("Compressed leaf is truncated");
+				}
+				offset += length;
+			}
+
+			return encoded;
+		}
+		catch (DataFormatException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+
+	private static int readVarInt(byte[] aBuffer, int[] aPosition)
+	{
+		int value = 0;
+		for (int shift = 0;; shift += 7)
+		{
+			int b = aBuffer[aPosition[0]++] & 0xFF;
+			value |= (b & 0x7F) << shift;
+			if (b < 0x80)
+			{
+				return value;
+			}
+		}
+	}
+
+
+	private static class Output
+	{
+		private byte[] mBuffer;
+		private int mLength;
+
+
+		Output(int aCapacity)
+		{
+			mBuffer = new byte[aCapacity];
+		}
+
+
+		void write(int aByte)
+		{
+			ensureCapacity(1);
+			mBuffer[mLength++] = (byte)aByte;
+		}
+
+
+		void write(byte[] aBuffer, int aOffset, int aLength)
+		{
+			ensureCapacity(aLength);
+			System.arraycopy(aBuffer, aOffset, mBuffer, mLength, aLength);
+			mLength += aLength;
+		}
+
+
+		void writeVarInt(int aValue)
+		{
+			while ((aValue & ~0x7F) != 0)
+			{
+				write((aValue & 0x7F) | 0x80);
+				aValue >>>= 7;
+			}
+			write(aValue);
+		}
+
+
+		byte[] toByteArray()
+		{
+			return java.util.Arrays.copyOf(mBuffer, mLength);
+		}
+
+
+		private void ensureCapacity(int aLength)
+		{
+			if (mLength + aLength > mBuffer.length)
+			{
+				mBuffer = java.util.Arrays.copyOf(mBuffer, Math.max(2 * mBuffer.length, mLength + aLength));
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.terifan.raccoon.btree;
+
+import java.util.ArrayList;
+
+
+/**
+ * Bounds the memory used by nodes loaded into a tree. Nodes are tracked in a CLOCK ring and when the total capacity of the tracked
+ * nodes exceed the budget clean nodes are detached from their parents. Nodes are reloaded from their block pointer on next access.
+ * <p>
+ * The root, modified nodes, pinned nodes and interior nodes with loaded children are never evicted.
+ */
+final class NodeCache
+{
+	final static long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+	private final ArrayList<BTreeNode> mNodes;
+	private long mCapacity;
+	private long mSize;
+	private int mHand;
+	private long mEvictions;
+
+
+	NodeCache(long aCapacity)
+	{
+		mNodes = new ArrayList<>();
+		mCapacity = aCapacity;
+	}
+
+
+	synchronized void setCapacity(long aCapacity)
+	{
+		mCapacity = aCapacity;
+	}
+
+
+	synchronized long getCapacity()
+	{
+		return mCapacity;
+	}
+
+
+	/**
+	 * Start tracking a node or update the size of a node already tracked. Must not be called while holding the monitor of a node.
+	 */
+	synchronized void add(BTreeNode aNode)
+	{
+		int size = aNode.mMap.getCapacity();
+
+		if (aNode.mCacheSize == 0)
+		{
+			mNodes.add(aNode);
+		}
+
+		mSize += size - aNode.mCacheSize;
+		aNode.mCacheSize = size;
+		aNode.mReferenced = true;
+	}
+
+
+	synchronized void pin(BTreeNode aNode)
+	{
+		aNode.mPinCount++;
+	}
+
+
+	synchronized void unpin(BTreeNode aNode)
+	{
+		aNode.mPinCount--;
+	}
+
+
+	/**
+	 * Evict nodes until the cache is within budget. Must not be called while holding the monitor of a node.
+	 */
+	synchronized void trim()
+	{
+		for (int scanned = 0, limit = 2 * mNodes.size(); mSize > mCapacity && scanned < limit && !mNodes.isEmpty(); scanned++)
+		{
+			if (mHand >= mNodes.size())
+			{
+				mHand = 0;
+			}
+
+			BTreeNode node = mNodes.get(mHand);
+
+			if (node.mReferenced)
+			{
+				node.mReferenced = false;
+				mHand++;
+			}
+			else if (node.mModified || node.mPinCount > 0 || node.mParent == null || !node.mParent.evict(node))
+			{
+				mHand++;
+			}
+			else
+			{
+				remove(mHand);
+				mEvictions++;
+			}
+		}
+	}
+
+
+	/**
+	 * Stop tracking a node removed from the tree.
+	 */
+	synchronized void remove(BTreeNode aNode)
+	{
+		if (aNode.mCacheSize != 0)
+		{
+			int index = mNodes.indexOf(aNode);
+			if (index != -1)
+			{
+				remove(index);
+			}
+		}
+	}
+
+
+	synchronized void clear()
+	{
+		for (BTreeNode node : mNodes)
+		{
+			node.mCacheSize = 0;
+		}
+		mNodes.clear();
+		mSize = 0;
+		mHand = 0;
+	}
+
+
+	synchronized long getEvictions()
+	{
+		return mEvictions;
+	}
+
+
+	synchronized long getSize()
+	{
+		return mSize;
+	}
+
+
+	private void remove(int aIndex)
+	{
+		BTreeNode node = mNodes.get(aIndex);
+		BTreeNode last = mNodes.remove(mNodes.size() - 1);
+		if (aIndex < mNodes.size())
+		{
+			mNodes.set(aIndex, last);
+		}
+		mSize -= node.mCacheSize;
+		node.mCacheSize = 0;
+	}
+}
@@ -0,0 +1,179 @@
+package org.terifan.raccoon.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Executes tasks one at a time in submission order on a shared executor. No thread is held while the queue is empty which allow
+ * any number of serial queues to share a single pool.
+ */
+public class SerialExecutor extends AbstractExecutorService
+{
+	private final Executor mExecutor;
+	private final ArrayDeque<Runnable> mQueue;
+	private final ArrayList<Runnable> mRejected;
+	private Runnable mActive;
+	private boolean mShutdown;
+
+
+	public SerialExecutor(Executor aExecutor)
+	{
+		mExecutor = aExecutor;
+		mQueue = new ArrayDeque<>();
+		mRejected = new ArrayList<>();
+	}
+
+
+	@Override
+	public synchronized void execute(Runnable aCommand)
+	{
+		if (mShutdown)
+		{
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+
+		mQueue.add(aCommand);
+
+		if (mActive == null)
+		{
+			try
+			{
+				scheduleNext();
+			}
+			catch (RejectedExecutionException e)
+			{
+				mQueue.remove(aCommand);
+				throw e;
+			}
+		}
+	}
+
+
+	/**
+	 * Start the next task. If the underlying executor rejects it the task is put back first in the queue and no task is active.
+	 */
+	private synchronized void scheduleNext()
+	{
+		Runnable task = mQueue.poll();
+		mActive = task;
+
+		if (task == null)
+		{
+			notifyAll();
+			return;
+		}
+
+		try
+		{
+			mExecutor.execute(() -> run(task));
+		}
+		catch (RejectedExecutionException e)
+		{
+			mActive = null;
+			mQueue.addFirst(task);
+			notifyAll();
+			throw e;
+		}
+	}
+
+
+	private void run(Runnable aTask)
+	{
+		try
+		{
+			aTask.run();
+		}
+		finally
+		{
+			try
+			{
+				scheduleNext();
+			}
+			catch (RejectedExecutionException e)
+			{
+				rejectQueued();
+			}
+		}
+	}
+
+
+	/**
+	 * Called when the underlying executor refuses the next task. Queued tasks will never run, so their futures are cancelled. The
+	 * tasks are kept so that shutdownNow can return them.
+	 */
+	private synchronized void rejectQueued()
+	{
+		for (Runnable task : mQueue)
+		{
+			if (task instanceof Future<?> v)
+			{
+				v.cancel(false);
+			}
+		}
+
+		mRejected.addAll(mQueue);
+		mQueue.clear();
+		notifyAll();
+	}
+
+
+	@Override
+	public synchronized void shutdown()
+	{
+		mShutdown = true;
+		notifyAll();
+	}
+
+
+	@Override
+	public synchronized List<Runnable> shutdownNow()
+	{
+		mShutdown = true;
+		List<Runnable> list = new ArrayList<>(mRejected);
+		list.addAll(mQueue);
+		mRejected.clear();
+		mQueue.clear();
+		notifyAll();
+		return list;
+	}
+
+
+	@Override
+	public synchronized boolean isShutdown()
+	{
+		return mShutdown;
+	}
+
+
+	@Override
+	public synchronized boolean isTerminated()
+	{
+		return mShutdown && mActive == null && mQueue.isEmpty();
+	}
+
+
+	@Override
+	public synchronized boolean awaitTermination(long aTimeout, TimeUnit aUnit) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + aUnit.toNanos(aTimeout);
+
+		while (!isTerminated())
+		{
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+			{
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,126 @@
+package org.terifan.raccoon;
+
+import java.util.ArrayList;
+import java.util.stream.IntStream;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class BlockCacheNGTest
+{
+	private final static int BLOCK_SIZE = 4096;
+
+
+	@Test
+	public void testScanKeepsHotBlocks()
+	{
+		ArrayList<BlockCache.Key> evicted = new ArrayList<>();
+		BlockCache cache = new BlockCache(256 * BLOCK_SIZE, (k, v) -> evicted.add(k));
+
+		for (int round = 0; round < 10; round++)
+		{
+			for (int i = 0; i < 100; i++)
+			{
+				read(cache, i);
+			}
+		}
+
+		for (int i = 0; i < 100; i++)
+		{
+			assertNotNull(cache.get(key(i)));
+		}
+
+		// a scan four times larger than the cache
+		long misses = cache.getMisses();
+		for (int i = 0; i < 1000; i++)
+		{
+			read(cache, 1000 + i);
+		}
+
+		assertEquals(cache.getMisses() - misses, 1000L);
+		assertTrue(evicted.size() > 800);
+		for (BlockCache.Key key : evicted)
+		{
+			assertTrue(key.getAddress() >= 1000);
+		}
+
+		for (int i = 0; i < 100; i++)
+		{
+			assertNotNull(cache.get(key(i)));
+		}
+	}
+
+
+	@Test
+	public void testRemove()
+	{
+		ArrayList<BlockCache.Key> evicted = new ArrayList<>();
+		BlockCache cache = new BlockCache(256 * BLOCK_SIZE, (k, v) -> evicted.add(k));
+
+		for (int i = 0; i < 200; i++)
+		{
+			read(cache, i);
+		}
+		for (int i = 0; i < 200; i++)
+		{
+			cache.remove(key(i));
+		}
+		for (int i = 0; i < 200; i++)
+		{
+			assertNull(cache.get(key(i)));
+		}
+
+		assertTrue(evicted.isEmpty());
+	}
+
+
+	@Test
+	public void testSegments()
+	{
+		BlockCache cache = new BlockCache(64 * 1024 * 1024, null);
+
+		assertEquals(cache.getSegmentCount(), Integer.highestOneBit(Math.min(4 * Runtime.getRuntime().availableProcessors(), 16)));
+
+		IntStream.range(0, 8).parallel().forEach(t -> {
+			for (int i = 0; i < 1000; i++)
+			{
+				byte[] block = new byte[BLOCK_SIZE];
+				cache.put(key(t * 1000 + i), block);
+				assertSame(cache.get(key(t * 1000 + i)), block);
+			}
+		});
+
+		assertEquals(cache.getHits(), 8000L);
+		assertEquals(cache.getMisses(), 0L);
+	}
+
+
+	@Test
+	public void testKeyGeneration()
+	{
+		BlockCache cache = new BlockCache(256 * BLOCK_SIZE, null);
+
+		cache.put(new BlockCache.Key(7, 1), new byte[BLOCK_SIZE]);
+
+		assertNotNull(cache.get(new BlockCache.Key(7, 1)));
+		assertNull(cache.get(new BlockCache.Key(7, 2)));
+	}
+
+
+	/**
+	 * Read a block through the cache, loading it on a miss.
+	 */
+	private static void read(BlockCache aCache, long aBlock)
+	{
+		if (aCache.get(key(aBlock)) == null)
+		{
+			aCache.put(key(aBlock), new byte[BLOCK_SIZE]);
+		}
+	}
+
+
+	private static BlockCache.Key key(long aBlock)
+	{
+		return new BlockCache.Key(aBlock, 0);
+	}
+}
@@ -0,0 +1,53 @@
+package org.terifan.raccoon;
+
+import org.terifan.raccoon.document.Array;
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class FieldSymbolsNGTest
+{
+	@Test
+	public void testEncodeDecode()
+	{
+		Document table = new Document();
+		FieldSymbols symbols = new FieldSymbols(table);
+
+		Document document = new Document().put("_id", 7).put("customerName", "alice").put("address", new Document().put("_id", 1).put("streetName", "main"));
+		Document encoded = symbols.encode(document);
+
+		assertEquals(encoded.get("_id"), (Object)7);
+		assertFalse(encoded.containsKey("customerName"));
+		assertEquals(table.size(), 4);
+		assertEquals(symbols.decode(encoded), document);
+
+		FieldSymbols reopened = new FieldSymbols(table);
+
+		assertEquals(reopened.decode(encoded), document);
+		assertEquals(reopened.encode(document), encoded);
+	}
+
+
+	@Test
+	public void testDocumentsInArrays()
+	{
+		Document table = new Document();
+		FieldSymbols symbols = new FieldSymbols(table);
+
+		Document document = new Document().put("_id", 7).put("orderLines", Array.of(new Document().put("productName", "pen"), 3, Array.of(new Document().put("discountCode", "x"))));
+		Document encoded = symbols.encode(document);
+
+		Array lines = encoded.get(Integer.toString(table.getInt("orderLines"), 36));
+		Document line = lines.get(0);
+		Array nested = lines.get(2);
+		Document discount = nested.get(0);
+
+		assertFalse(line.containsKey("productName"));
+		assertFalse(discount.containsKey("discountCode"));
+		assertEquals(lines.get(1), (Object)3);
+		assertEquals(table.size(), 3);
+		assertEquals(symbols.decode(encoded), document);
+		assertEquals(new FieldSymbols(table).decode(encoded), document);
+	}
+}
@@ -0,0 +1,105 @@
+package org.terifan.raccoon;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+import static org.terifan.raccoon.OffHeapBlockCache.PAGE_SIZE;
+
+
+public class OffHeapBlockCacheNGTest
+{
+	@Test
+	public void testPutRemove()
+	{
+		try (OffHeapBlockCache cache = new OffHeapBlockCache(8 * PAGE_SIZE))
+		{
+			cache.put(key(1), block(1, 100));
+			cache.put(key(2), block(2, PAGE_SIZE));
+			cache.put(key(3), block(3, PAGE_SIZE + 1));
+			cache.put(key(4), block(4, 0));
+
+			assertEquals(cache.remove(key(3)), block(3, PAGE_SIZE + 1));
+			assertEquals(cache.remove(key(1)), block(1, 100));
+			assertEquals(cache.remove(key(4)), block(4, 0));
+			assertEquals(cache.remove(key(2)), block(2, PAGE_SIZE));
+
+			assertNull(cache.remove(key(1)));
+			assertNull(cache.remove(key(5)));
+		}
+	}
+
+
+	@Test
+	public void testPageReuse()
+	{
+		try (OffHeapBlockCache cache = new OffHeapBlockCache(4 * PAGE_SIZE))
+		{
+			for (int i = 0; i < 4; i++)
+			{
+				cache.put(key(i), block(i, PAGE_SIZE));
+			}
+
+			// the two least recently used blocks are discarded to make room
+			cache.put(key(4), block(4, 2 * PAGE_SIZE));
+
+			assertNull(cache.remove(key(0)));
+			assertNull(cache.remove(key(1)));
+			assertEquals(cache.remove(key(2)), block(2, PAGE_SIZE));
+
+			// the freed page is reused without discarding anything
+			cache.put(key(5), block(5, 100));
+
+			assertEquals(cache.remove(key(3)), block(3, PAGE_SIZE));
+			assertEquals(cache.remove(key(4)), block(4, 2 * PAGE_SIZE));
+			assertEquals(cache.remove(key(5)), block(5, 100));
+
+			// all pages are free again
+			cache.put(key(6), block(6, 4 * PAGE_SIZE));
+			cache.put(key(7), block(7, 5 * PAGE_SIZE));
+
+			assertNull(cache.remove(key(7)));
+			assertEquals(cache.remove(key(6)), block(6, 4 * PAGE_SIZE));
+
+			cache.put(key(8), block(8, PAGE_SIZE));
+			cache.clear();
+
+			assertNull(cache.remove(key(8)));
+
+			cache.put(key(9), block(9, 4 * PAGE_SIZE));
+
+			assertEquals(cache.remove(key(9)), block(9, 4 * PAGE_SIZE));
+		}
+	}
+
+
+	@Test
+	public void testClose()
+	{
+		OffHeapBlockCache cache = new OffHeapBlockCache(4 * PAGE_SIZE);
+		cache.put(key(1), block(1, 100));
+		cache.close();
+
+		assertNull(cache.remove(key(1)));
+
+		cache.put(key(2), block(2, 100));
+		cache.close();
+
+		assertNull(cache.remove(key(2)));
+	}
+
+
+	private static BlockCache.Key key(long aBlock)
+	{
+		return new BlockCache.Key(aBlock, 0);
+	}
+
+
+	private static byte[] block(int aSeed, int aLength)
+	{
+		byte[] buffer = new byte[aLength];
+		for (int i = 0; i < aLength; i++)
+		{
+			buffer[i] = (byte)(aSeed * 31 + i);
+		}
+		return buffer;
+	}
+}
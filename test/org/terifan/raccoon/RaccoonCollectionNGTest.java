@@ -1,12 +1,260 @@
 package org.terifan.raccoon;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import org.terifan.raccoon.blockdevice.RaccoonStorage;
+import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
+import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
+import org.terifan.raccoon.btree.BTreeLeafNode;
+import org.terifan.raccoon.btree.BTreeVisitor;
+import org.terifan.raccoon.document.Document;
+import org.terifan.raccoon.result.SaveOneResult;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 import org.testng.annotations.Test;
 
 
 public class RaccoonCollectionNGTest
 {
+	@Test
+	public void testReadsObserveQueuedWrites() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection collection = database.getCollection("fruits");
+
+			Future<SaveOneResult> last = null;
+			for (int i = 0; i < 500; i++)
+			{
+				last = collection.saveOne(new _Fruit("fruit-" + i, i));
+
+				assertEquals(collection.size().get().get(), i + 1L);
+
+				_Fruit fruit = new _Fruit("fruit-" + i);
+				assertTrue(collection.tryFindOne(fruit));
+				assertEquals(fruit.get("calories"), (double)i);
+			}
+
+			last.get();
+			collection.tryDeleteOne(new _Fruit("fruit-0"));
+
+			assertEquals(collection.mPendingWrites.get(), 0);
+			assertEquals(collection.find().get().size(), 499);
+		}
+	}
+
+
+	@Test
+	public void testRejectedWriteIsNotPending() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE);
+		RaccoonCollection collection = database.getCollection("fruits");
+		collection.saveOne(new _Fruit("apple", 52.0)).get();
+
+		database.getWorkerPool().shutdown();
+
+		try
+		{
+			collection.saveOne(new _Fruit("banana", 89.0)).get();
+			fail();
+		}
+		catch (RejectedExecutionException | CancellationException e)
+		{
+			// refused at once, or cancelled while queued if the previous write was still finishing
+		}
+
+		for (int i = 0; i < 100 && collection.mPendingWrites.get() > 0; i++)
+		{
+			Thread.sleep(10);
+		}
+
+		assertEquals(collection.mPendingWrites.get(), 0);
+	}
+
+
+	@Test
+	public void testDirectExecution() throws Exception
+	{
+		assertEquals(readThreads(true), List.of(Thread.currentThread(), Thread.currentThread()));
+
+		for (Thread thread : readThreads(false))
+		{
+			assertNotSame(thread, Thread.currentThread());
+		}
+	}
+
+
+	@Test
+	public void testReadAfterDrop() throws Exception
+	{
+		for (boolean direct : new boolean[]{false, true})
+		{
+			try (RaccoonDatabase database = new RaccoonDatabaseProvider(new RaccoonStorage().inMemory()).withDirectExecution(direct).get())
+			{
+				RaccoonCollection collection = database.getCollection("fruits");
+				collection.saveOne(new _Fruit("apple", 52.0)).get();
+				collection.drop().get();
+
+				assertFalse(collection.tryFindOne(new _Fruit("apple")));
+			}
+		}
+	}
+
+
+	/**
+	 * Return the threads reading an external document in tryFindOne and tryDeleteOne.
+	 */
+	private List<Thread> readThreads(boolean aDirectExecution) throws Exception
+	{
+		CopyOnWriteArrayList<Thread> threads = new CopyOnWriteArrayList<>();
+
+		try (RaccoonDatabase database = new RaccoonDatabaseProvider(new RaccoonStorage().inMemory()).withDirectExecution(aDirectExecution).get())
+		{
+			RaccoonCollection collection = database.getCollection("notes").withDocumentSupplier(() ->
+			{
+				threads.add(Thread.currentThread());
+				return new Document();
+			});
+
+			collection.saveOne(new Document().put("_id", "big").put("text", "x".repeat(5000))).get();
+
+			assertTrue(collection.tryFindOne(new Document().put("_id", "big")));
+			assertTrue(collection.tryDeleteOne(new Document().put("_id", "big")));
+		}
+
+		assertEquals(threads.size(), 2);
+
+		return threads;
+	}
+
+
+	@Test
+	public void testSnapshotRetainsDeletedExternalValue() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection collection = database.getCollection("notes");
+			String text = "x".repeat(5000);
+
+			collection.saveOne(new Document().put("_id", "big").put("text", text)).get();
+			database.commit().get();
+
+			assertTrue(collection.tryDeleteOne(new Document().put("_id", "big")));
+
+			try (RaccoonSnapshot snapshot = collection.snapshot())
+			{
+				database.commit().get();
+
+				for (int i = 0; i < 10; i++)
+				{
+					collection.saveOne(new Document().put("_id", "big-" + i).put("text", "y".repeat(5000))).get();
+				}
+				database.commit().get();
+
+				Document document = new Document().put("_id", "big");
+				assertTrue(snapshot.tryFindOne(document));
+				assertEquals(document.getString("text"), text);
+			}
+
+			assertFalse(collection.tryFindOne(new Document().put("_id", "big")));
+		}
+	}
+
+
+	@Test
+	public void testReadExternalEntryFromView() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection collection = database.getCollection("notes");
+
+			for (int i = 0; i < 20; i++)
+			{
+				collection.saveOne(new Document().put("_id", i).put("text", (i % 2 == 0 ? "x" : "y").repeat(i % 4 == 0 ? 5000 : 10))).get();
+			}
+			collection.commit().get();
+
+			ArrayList<Document> fromViews = new ArrayList<>();
+			ArrayList<Document> fromEntries = new ArrayList<>();
+
+			collection._getImplementation().visit(new BTreeVisitor()
+			{
+				@Override
+				public boolean leaf(BTreeLeafNode aNode)
+				{
+					aNode.forEachView(e ->
+					{
+						fromViews.add(collection.readExternalEntry(e));
+						fromEntries.add(collection.readExternalEntry(e.toEntry()));
+					});
+					return true;
+				}
+			});
+
+			assertEquals(fromViews.size(), 20);
+			assertEquals(fromViews, fromEntries);
+
+			ArrayList<String> expected = new ArrayList<>();
+			ArrayList<String> texts = new ArrayList<>();
+			for (int i = 0; i < 20; i++)
+			{
+				expected.add((i % 2 == 0 ? "x" : "y").repeat(i % 4 == 0 ? 5000 : 10));
+				texts.add(fromViews.get(i).getString("text"));
+			}
+			Collections.sort(expected);
+			Collections.sort(texts);
+
+			assertEquals(texts, expected);
+		}
+	}
+
+
+	@Test
+	public void testKeysDecodeFieldSymbols() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection collection = database.createCollection("people", new Document().put("fieldSymbols", true));
+
+			for (int i = 0; i < 10; i++)
+			{
+				collection.saveOne(new Document().put("_id", i).put("name", "person-" + i)).get();
+			}
+
+			ArrayList<String> names = new ArrayList<>();
+			for (Document document : collection.keys())
+			{
+				names.add(document.getString("name"));
+			}
+			Collections.sort(names);
+
+			assertEquals(names.size(), 10);
+			for (int i = 0; i < names.size(); i++)
+			{
+				assertEquals(names.get(i), "person-" + i);
+			}
+		}
+	}
+
+
 //	@Test
 //	public void testSingleTableInsertTiny() throws Exception
 //	{
@@ -1,8 +1,18 @@
 package org.terifan.raccoon;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
 import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
+import org.terifan.raccoon.document.Document;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import org.testng.annotations.Test;
 
@@ -31,6 +41,146 @@ public class RaccoonDatabaseNGTest
 	}
 
 
+	@Test
+	public void testCollectionCommitPublishedByDatabaseCommit() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection fruits = database.getCollection("fruits");
+			fruits.saveOne(new _Fruit("apple", 123.0));
+			fruits.commit().get();
+			database.commit().get();
+
+			fruits.saveOne(new _Fruit("banana", 89.0));
+			fruits.commit().get();
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			assertTrue(database.getCollection("fruits").tryFindOne(new _Fruit("apple")));
+			assertTrue(database.getCollection("fruits").tryFindOne(new _Fruit("banana")));
+		}
+	}
+
+
+	@Test
+	public void testIdleCommit() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonCollection fruits = database.getCollection("fruits");
+			RaccoonMap settings = database.getMap("settings");
+
+			fruits.saveOne(new _Fruit("apple", 123.0));
+			settings.put("theme", "dark");
+
+			assertTrue(settings.isChanged());
+
+			database.commit().get();
+
+			assertFalse(settings.isChanged());
+			assertTrue(fruits.flush().isDone());
+			assertTrue(fruits.commit().isDone());
+
+			settings.remove("theme");
+
+			assertTrue(settings.isChanged());
+
+			database.commit().get();
+
+			assertFalse(settings.isChanged());
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			assertTrue(database.getCollection("fruits").tryFindOne(new _Fruit("apple")));
+		}
+	}
+
+
+	@Test
+	public void testCloseReadOnlyShutsDownWorkerPool() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			database.getCollection("fruits").saveOne(new _Fruit("apple", 123.0));
+		}
+
+		RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.READ_ONLY);
+
+		assertTrue(database.getCollection("fruits").tryFindOne(new _Fruit("apple")));
+
+		database.close();
+
+		assertTrue(database.getWorkerPool().isShutdown());
+	}
+
+
+	@Test
+	public void testConcurrentCommitsShareFuture() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			CountDownLatch latch = new CountDownLatch(1);
+			RaccoonCollection fruits = database.getCollection("fruits").withIdSupplier(() ->
+			{
+				try
+				{
+					latch.await();
+				}
+				catch (InterruptedException e)
+				{
+				}
+				return "apple";
+			});
+
+			fruits.saveOne(new Document());
+
+			Future<Document> running = database.commit();
+
+			while (fruits.mPendingWrites.get() < 2)
+			{
+				Thread.sleep(1);
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			List<Future<Future<Document>>> calls = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+			{
+				calls.add(pool.submit(() -> database.commit()));
+			}
+
+			Future<Document> pending = calls.get(0).get();
+			for (Future<Future<Document>> call : calls)
+			{
+				assertSame(call.get(), pending);
+			}
+			assertNotSame(pending, running);
+
+			latch.countDown();
+
+			running.get();
+			pending.get();
+			pool.shutdown();
+
+			assertNotSame(database.commit(), pending);
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			assertTrue(database.getCollection("fruits").tryFindOne(new _Fruit("apple")));
+		}
+	}
+
+
 //	@Test
 //	public void testSingleTableInsertTiny2() throws Exception
 //	{
@@ -0,0 +1,120 @@
+package org.terifan.raccoon;
+
+import java.util.ArrayList;
+import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
+import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class RaccoonPartitionedCollectionNGTest
+{
+	@Test
+	public void testRouting() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		ArrayList<Document> fruits = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+		{
+			fruits.add(new _Fruit("fruit-" + i, i));
+		}
+
+		int[] partitions = new int[fruits.size()];
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits", 4);
+			collection.saveMany(fruits).get();
+
+			int[] counts = new int[4];
+			for (int i = 0; i < fruits.size(); i++)
+			{
+				partitions[i] = collection.partitionIndex(fruits.get(i));
+				counts[partitions[i]]++;
+			}
+			for (int count : counts)
+			{
+				assertTrue(count > 0);
+			}
+
+			collection.commit().get();
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits");
+
+			assertEquals(collection.getPartitionCount(), 4);
+			assertEquals(collection.size().get().get(), 100L);
+
+			for (int i = 0; i < fruits.size(); i++)
+			{
+				_Fruit fruit = new _Fruit("fruit-" + i);
+				assertEquals(collection.partitionIndex(fruit), partitions[i]);
+				assertTrue(collection.tryFindOne(fruit));
+				assertEquals(fruit.get("calories"), (double)i);
+			}
+		}
+	}
+
+
+	@Test
+	public void testCommitPublishesPartitions() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits", 3);
+			collection.saveMany(new _Fruit("apple", 52.0), new _Fruit("banana", 89.0), new _Fruit("cherry", 50.0)).get();
+			collection.commit().get();
+
+			collection.saveOne(new _Fruit("date", 282.0)).get();
+			database.rollback().get();
+
+			assertTrue(collection.tryFindOne(new _Fruit("apple")));
+			assertFalse(collection.tryFindOne(new _Fruit("date")));
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits");
+
+			assertTrue(collection.tryFindOne(new _Fruit("apple")));
+			assertTrue(collection.tryFindOne(new _Fruit("banana")));
+			assertTrue(collection.tryFindOne(new _Fruit("cherry")));
+			assertFalse(collection.tryFindOne(new _Fruit("date")));
+		}
+	}
+
+
+	@Test
+	public void testDrop() throws Exception
+	{
+		ManagedBlockDevice device = new ManagedBlockDevice(new MemoryBlockStorage(512));
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.CREATE))
+		{
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits", 2);
+			collection.saveMany(new _Fruit("apple", 52.0), new _Fruit("banana", 89.0)).get();
+			collection.commit().get();
+
+			collection.drop().get();
+			database.commit().get();
+
+			assertNull(database.getPartitionedCollection("fruits"));
+		}
+
+		try (RaccoonDatabase database = new RaccoonDatabase(device, DatabaseOpenOption.OPEN))
+		{
+			assertNull(database.getPartitionedCollection("fruits"));
+
+			RaccoonPartitionedCollection collection = database.getPartitionedCollection("fruits", 2);
+
+			assertEquals(collection.size().get().get(), 0L);
+			assertFalse(collection.tryFindOne(new _Fruit("apple")));
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.terifan.raccoon.btree;
+
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class ArrayMapEntryViewNGTest
+{
+	@Test
+	public void testReuseAcrossEntries()
+	{
+		ArrayMap map = new ArrayMap(4096, 4096);
+
+		for (int i = 0; i < 50; i++)
+		{
+			map.insert(new ArrayMapEntry().setKeyInstance(String.format("key-%03d", i)).setValueInstance(new Document().put("value", i)));
+		}
+
+		ArrayMapEntryView view = new ArrayMapEntryView();
+
+		for (int i = 0; i < map.size(); i++)
+		{
+			assertSame(map.loadView(i, view), view);
+
+			ArrayMapEntry entry = map.get(i);
+
+			assertEquals(view.getKeyInstance(), String.format("key-%03d", i));
+			assertEquals(view.getKey().compareTo(entry), 0);
+			assertEquals(view.getValueDocument(new Document()).getInt("value"), i);
+			assertEquals(view.getInstance(new Document()).get("_id"), String.format("key-%03d", i));
+			assertEquals(view.toEntry().getValue(), entry.getValue());
+		}
+
+		// a view only reflects the entry it was last positioned on
+		map.loadView(10, view);
+		ArrayMapEntry copy = view.toEntry();
+		map.loadView(20, view);
+
+		assertEquals(copy.getKeyInstance(), "key-010");
+		assertEquals(view.getKeyInstance(), "key-020");
+	}
+}
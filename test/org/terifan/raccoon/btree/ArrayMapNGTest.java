@@ -67,6 +67,24 @@ public class ArrayMapNGTest
 	}
 
 
+	@Test
+	public void testRemoveLoadsValue()
+	{
+		ArrayMap map = new ArrayMap(100, 100);
+
+		map.insert(new ArrayMapEntry().setKeyInstance("apple").setValueInstance(new Document().put("color", "red")));
+		map.insert(new ArrayMapEntry().setKeyInstance("banana").setValueInstance(new Document().put("color", "yellow")));
+
+		ArrayMapEntry removed = new ArrayMapEntry().setKeyInstance("apple");
+		map.remove(removed);
+
+		assertEquals(removed.getState(), OpState.REMOVED);
+		assertEquals(removed.getValueType(), Type.DOCUMENT);
+		assertEquals(((Document)removed.getValueInstance()).getString("color"), "red");
+		assertEquals(map.size(), 1);
+	}
+
+
 //	@Test
 //	public void testPutRemove()
 //	{
@@ -0,0 +1,57 @@
+package org.terifan.raccoon.btree;
+
+import org.terifan.raccoon.blockdevice.compressor.CompressorAlgorithm;
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class BTreeConfigurationNGTest
+{
+	@Test
+	public void testFromOptions()
+	{
+		BTreeConfiguration conf = BTreeConfiguration.fromOptions(new Document().put("leafSize", 65536).put("leafCompressor", "deflate_default"));
+
+		assertEquals(conf.getLeafSize(), 65536);
+		assertEquals(conf.getNodeSize(), 4096);
+		assertEquals(conf.getLeafCompressor(), CompressorAlgorithm.DEFLATE_DEFAULT.ordinal());
+		assertEquals(conf.getLimitEntrySize(), 1024);
+
+		BTreeConfiguration copy = new BTreeConfiguration(conf);
+
+		assertEquals(copy.getLeafSize(), 65536);
+		assertEquals(copy.getLeafCompressor(), CompressorAlgorithm.DEFLATE_DEFAULT.ordinal());
+	}
+
+
+	@Test
+	public void testFromOptionsSmallLeaf()
+	{
+		BTreeConfiguration conf = BTreeConfiguration.fromOptions(new Document().put("leafSize", 1024).put("leafCompressor", "NONE"));
+
+		assertEquals(conf.getLimitEntrySize(), 256);
+		assertEquals(conf.getLeafCompressor(), CompressorAlgorithm.NONE.ordinal());
+	}
+
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownOption()
+	{
+		BTreeConfiguration.fromOptions(new Document().put("pageSize", 4096));
+	}
+
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnknownCompressor()
+	{
+		BTreeConfiguration.fromOptions(new Document().put("leafCompressor", "SNAPPY"));
+	}
+
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testEntryLimitExceedsLeaf()
+	{
+		BTreeConfiguration.fromOptions(new Document().put("leafSize", 1024).put("limitEntrySize", 1024));
+	}
+}
@@ -9,11 +9,57 @@ import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
 import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
 import org.terifan.raccoon.document.Document;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 import org.testng.annotations.Test;
 
 
 public class BTreeIteratorNGTest
 {
+	@Test
+	public void testIterateAcrossLeaves() throws Exception
+	{
+		BTree tree = new BTree(new BlockAccessor(new ManagedBlockDevice(new MemoryBlockStorage(512))), new BTreeConfiguration());
+
+		for (int i = 0; i < 5000; i++)
+		{
+			tree.put(new ArrayMapEntry().setKeyInstance(String.format("key-%05d", i)).setValueInstance(new Document().put("value", i)));
+		}
+		tree.commit();
+
+		assertTrue(tree.getRoot() instanceof BTreeInteriorNode);
+
+		int count = 0;
+		for (BTreeIterator it = new BTreeIterator(tree); it.hasNext(); count++)
+		{
+			assertEquals(it.next().getInt("value"), count);
+		}
+		assertEquals(count, 5000);
+
+		// removing entries repositions the iterator after the last key returned, also when it is the last key of a leaf
+		count = 0;
+		for (BTreeIterator it = new BTreeIterator(tree); it.hasNext(); count++)
+		{
+			Document document = it.next();
+			assertEquals(document.getInt("value"), count);
+			if (count % 2 == 1)
+			{
+				it.remove();
+			}
+		}
+		assertEquals(count, 5000);
+		assertEquals(tree.size(), 2500);
+		assertNull(tree.integrityCheck());
+
+		count = 0;
+		for (BTreeIterator it = new BTreeIterator(tree); it.hasNext(); count += 2)
+		{
+			assertEquals(it.next().getInt("value"), count);
+		}
+		assertEquals(count, 5000);
+	}
+
+
 //	@Test
 //	public void testIterator() throws Exception
 //	{
@@ -1,8 +1,19 @@
 package org.terifan.raccoon.btree;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.terifan.raccoon.document.Array;
 import org.terifan.raccoon.document.Document;
 import org.terifan.raccoon.blockdevice.BlockAccessor;
+import org.terifan.raccoon.blockdevice.BlockPointer;
+import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
 import org.testng.annotations.Test;
 import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
 import static org.terifan.raccoon._Tools.createSecureStorage;
@@ -12,6 +23,565 @@ import static org.terifan.raccoon._Tools.doc;
 
 public class BTreeNGTest
 {
+	@Test
+	public void testParallelPersistMatchesSerialPersist() throws Exception
+	{
+		CountingBlockAccessor accessor = new CountingBlockAccessor();
+		BTree serial = createTree();
+		BTree parallel = new BTree(accessor, new BTreeConfiguration());
+
+		// a pool with a single worker prepares the modified leaves one at a time
+		ForkJoinPool serialPool = new ForkJoinPool(1);
+		ForkJoinPool parallelPool = new ForkJoinPool(4);
+
+		try
+		{
+			Random rnd = new Random(1);
+
+			for (int i = 1; i <= 20000; i++)
+			{
+				int key = rnd.nextInt(10000);
+
+				if (rnd.nextInt(4) == 0)
+				{
+					serial.remove(new ArrayMapEntry().setKeyInstance(key(key)));
+					parallel.remove(new ArrayMapEntry().setKeyInstance(key(key)));
+				}
+				else
+				{
+					serial.put(entry(key));
+					parallel.put(entry(key));
+				}
+
+				if (i % 5000 == 0)
+				{
+					assertTrue(serialPool.submit(() -> serial.commit()).get());
+					assertTrue(parallelPool.submit(() ->
+					{
+						// leaves are prepared in parallel but every block is written by the committing thread
+						accessor.mWriters.clear();
+						return parallel.commit() && accessor.mWriters.equals(Set.of(Thread.currentThread()));
+					}).get());
+
+					assertNull(serial.integrityCheck());
+					assertNull(parallel.integrityCheck());
+					assertEquals(describe(parallel), describe(serial));
+				}
+			}
+		}
+		finally
+		{
+			serialPool.shutdown();
+			parallelPool.shutdown();
+		}
+
+		List<String> expected = describe(serial);
+		assertTrue(expected.size() > 10);
+
+		try (BTree snapshot = parallel.snapshot())
+		{
+			assertNull(snapshot.integrityCheck());
+			assertEquals(describe(snapshot), expected);
+		}
+	}
+
+
+	@Test
+	public void testDeleteToEmpty() throws Exception
+	{
+		Random rnd = new Random(1);
+
+		ArrayList<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < 10000; i++)
+		{
+			keys.add(i);
+		}
+
+		ArrayList<Integer> shuffled = new ArrayList<>(keys);
+		Collections.shuffle(shuffled, rnd);
+
+		ArrayList<Integer> descending = new ArrayList<>(keys);
+		Collections.reverse(descending);
+
+		// every other key first leaves all leaves half full before they empty
+		ArrayList<Integer> alternating = new ArrayList<>();
+		for (int i = 0; i < 2; i++)
+		{
+			for (int key : keys)
+			{
+				if (key % 2 == i)
+				{
+					alternating.add(key);
+				}
+			}
+		}
+
+		for (List<Integer> order : List.of(keys, descending, shuffled, alternating))
+		{
+			BTree tree = createTree();
+
+			for (int key : shuffled)
+			{
+				tree.put(entry(key));
+			}
+			tree.commit();
+
+			assertTrue(tree.getRoot().mLevel >= 2);
+
+			boolean[] live = new boolean[keys.size()];
+			Arrays.fill(live, true);
+
+			for (int i = 0; i < order.size(); )
+			{
+				ArrayMapEntry entry = new ArrayMapEntry().setKeyInstance(key(order.get(i)));
+				tree.remove(entry);
+				assertEquals(entry.getState(), OpState.REMOVED);
+				live[order.get(i)] = false;
+
+				if (++i % 1000 == 0)
+				{
+					assertTrue(tree.commit());
+					assertNull(tree.integrityCheck());
+					assertEquals(tree.size(), (long)(order.size() - i));
+
+					for (int key : keys)
+					{
+						ArrayMapEntry found = new ArrayMapEntry().setKeyInstance(key(key));
+						tree.get(found);
+						assertEquals(found.getState() == OpState.MATCH, live[key]);
+					}
+				}
+			}
+
+			assertTrue(tree.getRoot() instanceof BTreeLeafNode);
+			assertEquals(tree.getRoot().size(), 0);
+			assertFalse(new BTreeIterator(tree).hasNext());
+
+			try (BTree snapshot = tree.snapshot())
+			{
+				assertNull(snapshot.integrityCheck());
+				assertEquals(snapshot.size(), 0L);
+			}
+
+			tree.put(entry(7));
+			tree.commit();
+
+			assertEquals(describe(tree).size(), 1);
+		}
+	}
+
+
+	@Test
+	public void testBulkLoad() throws Exception
+	{
+		ArrayList<ArrayMapEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			entries.add(entry(i));
+		}
+
+		BTree tree = createTree();
+		assertEquals(tree.bulkLoad(entries.iterator()), 20000L);
+		assertTrue(tree.getRoot().mLevel >= 2);
+
+		// the number of entries filling the first leaf completely
+		int[] leafEntries = new int[1];
+		tree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean leaf(BTreeLeafNode aNode)
+			{
+				if (leafEntries[0] == 0)
+				{
+					leafEntries[0] = aNode.size();
+				}
+				return true;
+			}
+		});
+		assertTrue(leafEntries[0] > 1);
+
+		verifyBulkLoad(tree, 20000);
+
+		for (int count : new int[]{0, 1, leafEntries[0], leafEntries[0] + 1})
+		{
+			tree = createTree();
+			assertEquals(tree.bulkLoad(entries.subList(0, count).iterator()), (long)count);
+			assertEquals(tree.getRoot().mLevel, count > leafEntries[0] ? 1 : 0);
+			verifyBulkLoad(tree, count);
+		}
+	}
+
+
+	@Test
+	public void testBulkLoadRejectsUnsortedInput() throws Exception
+	{
+		CountingBlockAccessor blockAccessor = new CountingBlockAccessor();
+		BTree tree = new BTree(blockAccessor, new BTreeConfiguration());
+		tree.put(entry(1));
+		tree.remove(new ArrayMapEntry().setKeyInstance(key(1)));
+		tree.commit();
+
+		int allocated = blockAccessor.mAllocated;
+
+		ArrayList<ArrayMapEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 5000; i++)
+		{
+			entries.add(entry(i));
+		}
+
+		// enough entries are loaded to write several leaves before the misplaced entry is found
+		ArrayList<ArrayMapEntry> unsorted = new ArrayList<>(entries);
+		Collections.swap(unsorted, 4000, 4001);
+
+		ArrayList<ArrayMapEntry> duplicate = new ArrayList<>(entries);
+		duplicate.add(4001, entry(4000));
+
+		for (List<ArrayMapEntry> input : List.of(unsorted, duplicate))
+		{
+			try
+			{
+				tree.bulkLoad(input.iterator());
+				fail();
+			}
+			catch (IllegalArgumentException e)
+			{
+			}
+
+			assertTrue(blockAccessor.mWritten > allocated);
+			assertEquals(blockAccessor.mAllocated, allocated);
+			assertEquals(tree.size(), 0L);
+			assertNull(tree.integrityCheck());
+		}
+
+		assertEquals(tree.bulkLoad(entries.iterator()), 5000L);
+		verifyBulkLoad(tree, 5000);
+	}
+
+
+	@Test
+	public void testSequentialInsertFillFactor() throws Exception
+	{
+		ArrayList<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			keys.add(i);
+		}
+
+		BTree sequential = createTree();
+		for (int key : keys)
+		{
+			sequential.put(entry(key));
+			if (key % 1000 == 999)
+			{
+				sequential.commit();
+			}
+		}
+
+		Collections.shuffle(keys, new Random(1));
+
+		BTree random = createTree();
+		for (int i = 0; i < keys.size(); i++)
+		{
+			random.put(entry(keys.get(i)));
+			if (i % 1000 == 999)
+			{
+				random.commit();
+			}
+		}
+
+		assertNull(sequential.integrityCheck());
+		assertNull(random.integrityCheck());
+		assertEquals(sequential.size(), 20000L);
+		assertEquals(random.size(), 20000L);
+
+		// leaves receiving sequential inserts are split full while other leaves are split evenly
+		for (double fill : getLeafFill(sequential))
+		{
+			assertTrue(fill > 0.9, "" + fill);
+		}
+
+		assertTrue(Arrays.stream(getLeafFill(random)).average().getAsDouble() < 0.8);
+	}
+
+
+	@Test
+	public void testBurstBeyondLeafGrowth() throws Exception
+	{
+		ArrayList<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			keys.add(i);
+		}
+		Collections.shuffle(keys, new Random(1));
+
+		for (int growth : new int[]{1, 2, 4})
+		{
+			BTree tree = createTree(BTreeConfiguration.fromOptions(new Document().put("leafGrowth", growth)));
+			int leafSize = tree.getConfiguration().getLeafSize();
+			int largest = 0;
+
+			// no flush happens during the burst so only the eager split bounds the leaves
+			for (int i = 0; i < keys.size(); i++)
+			{
+				tree.put(entry(keys.get(i)));
+
+				if (i % 100 == 99)
+				{
+					int size = getLargestLeaf(tree);
+					assertTrue(size <= leafSize * growth);
+					largest = Math.max(largest, size);
+				}
+			}
+
+			assertTrue(largest > leafSize * (growth - 1));
+
+			tree.commit();
+
+			assertNull(tree.integrityCheck());
+			assertEquals(tree.size(), 20000L);
+
+			// the flush splits leaves to the leaf size but the last two entries of a split leaf always share a leaf
+			assertTrue(getLargestLeaf(tree) <= leafSize + 2 * tree.getConfiguration().getLimitEntrySize());
+		}
+	}
+
+
+	private static int getLargestLeaf(BTree aTree)
+	{
+		int[] largest = new int[1];
+
+		aTree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean leaf(BTreeLeafNode aNode)
+			{
+				largest[0] = Math.max(largest[0], aNode.getStoredSize());
+				return true;
+			}
+		});
+
+		return largest[0];
+	}
+
+
+	/**
+	 * Return the stored size of every leaf except the last relative to the leaf size.
+	 */
+	private static double[] getLeafFill(BTree aTree)
+	{
+		ArrayList<Double> fill = new ArrayList<>();
+
+		aTree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean leaf(BTreeLeafNode aNode)
+			{
+				fill.add((double)aNode.getStoredSize() / aTree.getConfiguration().getLeafSize());
+				return true;
+			}
+		});
+
+		return fill.stream().limit(fill.size() - 1).mapToDouble(Double::doubleValue).toArray();
+	}
+
+
+	private static void verifyBulkLoad(BTree aTree, int aCount)
+	{
+		assertNull(aTree.integrityCheck());
+		aTree.commit();
+		assertNull(aTree.integrityCheck());
+		assertEquals(aTree.size(), (long)aCount);
+
+		for (int i = 0; i < aCount; i++)
+		{
+			ArrayMapEntry found = new ArrayMapEntry().setKeyInstance(key(i));
+			aTree.get(found);
+			assertEquals(found.getState(), OpState.MATCH);
+			assertEquals(((Document)found.getValueInstance()).getInt("value"), i);
+		}
+
+		try (BTree snapshot = aTree.snapshot())
+		{
+			assertNull(snapshot.integrityCheck());
+			assertEquals(snapshot.size(), (long)aCount);
+		}
+
+		// the loaded tree is updated like any other
+		aTree.put(entry(aCount));
+		aTree.remove(new ArrayMapEntry().setKeyInstance(key(0)));
+		aTree.commit();
+
+		assertNull(aTree.integrityCheck());
+		assertEquals(aTree.size(), (long)aCount);
+	}
+
+
+	@Test
+	public void testSeparatorKeys() throws Exception
+	{
+		Object[][] keys =
+		{
+			{"tenant/2024-01-01/a", "tenant/2024-01-02/a"},
+			{"caf\u00e9/a", "caf\u20ac/a"},
+			{new byte[]{1, 2, 3, 4}, new byte[]{1, 2, 4, 4}},
+			{Array.of(1, "abc"), Array.of(1, "abd")},
+			{new Document().put("a", 1).put("b", "abc"), new Document().put("a", 1).put("b", "abd")}
+		};
+
+		for (Object[] pair : keys)
+		{
+			ArrayMapEntry low = new ArrayMapEntry().setKeyInstance(pair[0]);
+			ArrayMapEntry high = new ArrayMapEntry().setKeyInstance(pair[1]);
+			ArrayMapEntry separator = BTree.createSeparator(low, high);
+
+			assertTrue(low.compareTo(separator) < 0);
+			assertTrue(separator.compareTo(high) <= 0);
+
+			if (pair[1] instanceof String || pair[1] instanceof byte[])
+			{
+				assertTrue(separator.getKey().length < high.getKey().length);
+			}
+			else
+			{
+				assertEquals(separator.getKeyInstance(), pair[1]);
+			}
+
+			// string separators are cut at code point boundaries and always decode to a prefix of the key
+			if (pair[1] instanceof String v)
+			{
+				assertTrue(v.startsWith((String)separator.getKeyInstance()));
+			}
+		}
+
+		BTree tree = createTree();
+		for (int i = 0; i < 5000; i++)
+		{
+			tree.put(new ArrayMapEntry().setKeyInstance(new Document().put("tenant", "tenant-" + i % 3).put("seq", i)).setValueInstance(new Document().put("value", i)));
+		}
+		tree.commit();
+
+		assertTrue(tree.getRoot().mLevel >= 1);
+
+		int[] separators = new int[1];
+		tree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean beforeInteriorNode(BTreeInteriorNode aNode, ArrayMapEntry aLowestKey, ArrayMapEntry aHighestKey)
+			{
+				for (ArrayMapEntry entry : aNode.mMap)
+				{
+					if (entry.getKeyType() == ArrayMapEntry.Type.DOCUMENT)
+					{
+						assertTrue(entry.getKeyInstance() instanceof Document);
+						separators[0]++;
+					}
+				}
+				return true;
+			}
+		});
+
+		assertTrue(separators[0] > 0);
+	}
+
+
+	private static BTree createTree()
+	{
+		return createTree(new BTreeConfiguration());
+	}
+
+
+	private static BTree createTree(BTreeConfiguration aConfiguration)
+	{
+		return new BTree(new BlockAccessor(new ManagedBlockDevice(new MemoryBlockStorage(512))), aConfiguration);
+	}
+
+
+	private static String key(int aKey)
+	{
+		return String.format("key-%08d", aKey);
+	}
+
+
+	private static ArrayMapEntry entry(int aKey)
+	{
+		return new ArrayMapEntry().setKeyInstance(key(aKey)).setValueInstance(new Document().put("value", aKey));
+	}
+
+
+	private static class CountingBlockAccessor extends BlockAccessor
+	{
+		int mWritten;
+		int mAllocated;
+		final Set<Thread> mWriters = ConcurrentHashMap.newKeySet();
+
+
+		CountingBlockAccessor()
+		{
+			super(new ManagedBlockDevice(new MemoryBlockStorage(512)));
+		}
+
+
+		@Override
+		public BlockPointer writeBlock(byte[] aBuffer, int aType, int aLevel, int aCompressor)
+		{
+			mWritten++;
+			mAllocated++;
+			mWriters.add(Thread.currentThread());
+			return super.writeBlock(aBuffer, aType, aLevel, aCompressor);
+		}
+
+
+		@Override
+		public void freeBlock(BlockPointer aBlockPointer)
+		{
+			if (aBlockPointer != null)
+			{
+				mAllocated--;
+			}
+			super.freeBlock(aBlockPointer);
+		}
+	}
+
+
+	/**
+	 * Return the level and entries of every node in key order.
+	 */
+	private static List<String> describe(BTree aTree)
+	{
+		ArrayList<String> nodes = new ArrayList<>();
+
+		aTree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean beforeInteriorNode(BTreeInteriorNode aNode, ArrayMapEntry aLowestKey, ArrayMapEntry aHighestKey)
+			{
+				StringBuilder sb = new StringBuilder("node " + aNode.mLevel);
+				for (ArrayMapEntry entry : aNode.mMap)
+				{
+					sb.append(" ").append(Arrays.toString(entry.getKey()));
+				}
+				nodes.add(sb.toString());
+				return true;
+			}
+
+
+			@Override
+			public boolean leaf(BTreeLeafNode aNode)
+			{
+				StringBuilder sb = new StringBuilder("leaf");
+				for (ArrayMapEntry entry : aNode.mMap)
+				{
+					sb.append(" ").append(Arrays.toString(entry.getKey())).append("=").append(Arrays.toString(entry.getValue()));
+				}
+				nodes.add(sb.toString());
+				return true;
+			}
+		});
+
+		return nodes;
+	}
+
+
 //	@Test
 //	public void testOpenCloseSecureBTree() throws Exception
 //	{
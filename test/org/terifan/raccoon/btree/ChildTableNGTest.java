@@ -0,0 +1,44 @@
+package org.terifan.raccoon.btree;
+
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class ChildTableNGTest
+{
+	@Test
+	public void testInsertRemoveSplit()
+	{
+		BTreeNode[] nodes = new BTreeNode[10];
+		for (int i = 0; i < nodes.length; i++)
+		{
+			nodes[i] = new BTreeLeafNode(null, null, null);
+		}
+
+		ChildTable table = new ChildTable(0);
+		for (int i = nodes.length; --i >= 0;)
+		{
+			table.insert(0, nodes[i]);
+		}
+
+		for (int i = 0; i < nodes.length; i++)
+		{
+			assertEquals(table.indexOf(nodes[i]), i);
+		}
+
+		table.remove(3);
+		assertEquals(table.indexOf(nodes[3]), -1);
+		assertEquals(table.indexOf(nodes[4]), 3);
+
+		table.detach(nodes[5]);
+		assertEquals(table.size(), 9);
+		assertNull(table.get(4));
+
+		ChildTable tail = table.split(6);
+		assertEquals(table.size(), 6);
+		assertEquals(tail.size(), 3);
+		assertEquals(tail.indexOf(nodes[7]), 0);
+		assertEquals(table.indexOf(nodes[7]), -1);
+		assertFalse(tail.isEmpty());
+	}
+}
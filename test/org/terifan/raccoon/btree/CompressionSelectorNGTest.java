@@ -0,0 +1,31 @@
+package org.terifan.raccoon.btree;
+
+import java.util.Random;
+import org.terifan.raccoon.blockdevice.compressor.CompressorAlgorithm;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class CompressionSelectorNGTest
+{
+	@Test
+	public void testSelect()
+	{
+		byte[] random = new byte[4096];
+		new Random(1).nextBytes(random);
+		byte[] text = "0123456789".repeat(400).getBytes();
+
+		CompressionSelector selector = new CompressionSelector();
+
+		assertEquals(selector.select(CompressionSelector.LEAF, CompressorAlgorithm.LZJB.ordinal(), random), CompressorAlgorithm.NONE.ordinal());
+		assertEquals(selector.select(CompressionSelector.NODE, CompressorAlgorithm.ZLE.ordinal(), text), CompressorAlgorithm.DEFLATE_DEFAULT.ordinal());
+		assertEquals(selector.select(CompressionSelector.EXTERNAL, CompressorAlgorithm.NONE.ordinal(), text), CompressorAlgorithm.NONE.ordinal());
+
+		// the deflater of a kind is reused for every sample
+		for (int i = 0; i < 100; i++)
+		{
+			assertEquals(selector.select(CompressionSelector.LEAF, CompressorAlgorithm.LZJB.ordinal(), random), CompressorAlgorithm.NONE.ordinal());
+			assertEquals(selector.select(CompressionSelector.NODE, CompressorAlgorithm.ZLE.ordinal(), text), CompressorAlgorithm.DEFLATE_DEFAULT.ordinal());
+		}
+	}
+}
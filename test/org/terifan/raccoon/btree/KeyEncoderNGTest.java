@@ -0,0 +1,176 @@
+package org.terifan.raccoon.btree;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import org.terifan.raccoon.document.Array;
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class KeyEncoderNGTest
+{
+	@Test
+	public void testLongOrder()
+	{
+		long[] values = {Long.MIN_VALUE, -1000, -1, 0, 1, 255, 256, 1000, Long.MAX_VALUE};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeLong(values[i - 1]);
+			byte[] b = KeyEncoder.encodeLong(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0);
+			assertEquals(KeyEncoder.decodeLong(b, 0), values[i]);
+		}
+	}
+
+
+	@Test
+	public void testDoubleOrder()
+	{
+		double[] values = {Double.NEGATIVE_INFINITY, -1e100, -1.5, -0.0, 0.0, 1e-300, 1.5, 1e100, Double.POSITIVE_INFINITY};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeDouble(values[i - 1]);
+			byte[] b = KeyEncoder.encodeDouble(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0);
+			assertEquals(KeyEncoder.decodeDouble(b, 0), values[i]);
+		}
+	}
+
+
+	@Test
+	public void testStringOrder()
+	{
+		String[] values = {"", "a", "a\u0000", "ab", "b", "å", "中"};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeString(values[i - 1]);
+			byte[] b = KeyEncoder.encodeString(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0);
+			assertEquals(KeyEncoder.decodeString(b), values[i]);
+		}
+	}
+
+
+	@Test
+	public void testUUIDOrder()
+	{
+		UUID a = new UUID(-1, 5);
+		UUID b = new UUID(1, -5);
+
+		byte[] x = KeyEncoder.encodeUUID(a);
+		byte[] y = KeyEncoder.encodeUUID(b);
+
+		assertEquals(Integer.signum(KeyEncoder.compare(x, y, 0, y.length)), Integer.signum(a.compareTo(b)));
+		assertEquals(KeyEncoder.decodeUUID(y, 0), b);
+	}
+
+
+	@Test
+	public void testArrayOrder()
+	{
+		Array[] values = {Array.of(-5, "a"), Array.of(-5, "a", 1), Array.of(-5, "b"), Array.of(3, ""), Array.of(3, "a\u0000b"), Array.of(3, "ab"), Array.of(40, "a")};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeArray(values[i - 1]);
+			byte[] b = KeyEncoder.encodeArray(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0, values[i - 1] + " < " + values[i]);
+			assertEquals(KeyEncoder.decodeArray(b), values[i]);
+		}
+	}
+
+
+	@Test
+	public void testMixedNumberOrder()
+	{
+		Array[] values = {
+			Array.of(-1e300),
+			Array.of(Long.MIN_VALUE),
+			Array.of((byte)-3),
+			Array.of(-2.5f),
+			Array.of(1),
+			Array.of(1L),
+			Array.of(1.0),
+			Array.of(1.5),
+			Array.of((short)2),
+			Array.of(2L, "a"),
+			Array.of(2.5),
+			Array.of(9007199254740992L),
+			Array.of(9007199254740992.0),
+			Array.of(9007199254740993L),
+			Array.of(Long.MAX_VALUE - 1),
+			Array.of(Long.MAX_VALUE),
+			Array.of(0x1p63),
+			Array.of(1e300)
+		};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeArray(values[i - 1]);
+			byte[] b = KeyEncoder.encodeArray(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0, values[i - 1] + " < " + values[i]);
+			assertEquals(KeyEncoder.decodeArray(b), values[i]);
+			assertEquals(KeyEncoder.decodeArray(b).get(0).getClass(), values[i].get(0).getClass());
+		}
+	}
+
+
+	@Test
+	public void testMixedNumberDocumentOrder()
+	{
+		Document[] values = {
+			new Document().put("a", 1L).put("b", 7),
+			new Document().put("a", 1.25).put("b", 3),
+			new Document().put("a", 2).put("b", 1L),
+			new Document().put("a", 2).put("b", 1.5),
+			new Document().put("a", 2L).put("b", (Object)null)
+		};
+
+		for (int i = 1; i < values.length; i++)
+		{
+			byte[] a = KeyEncoder.encodeDocument(values[i - 1]);
+			byte[] b = KeyEncoder.encodeDocument(values[i]);
+
+			assertTrue(KeyEncoder.compare(a, b, 0, b.length) < 0, values[i - 1] + " < " + values[i]);
+			assertEquals(KeyEncoder.decodeDocument(b), values[i]);
+		}
+	}
+
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testUnsupportedElement()
+	{
+		KeyEncoder.encodeArray(Array.of(1, LocalDate.of(2024, 1, 1)));
+	}
+
+
+	@Test
+	public void testShortestSeparator()
+	{
+		String[][] values = {{"tenant/2024-01-01/a", "tenant/2024-01-02/a", "tenant/2024-01-02"}, {"abc", "abcdef", "abcd"}, {"", "b", "b"}, {"a\u00e9x", "a\u20acx", "a\u20ac"}, {"\u20ac1", "\u20ad2", "\u20ad"}, {"x\ud83d\ude00", "x\ud83d\ude01", "x\ud83d\ude01"}, {"a", "a\u00e5", "a\u00e5"}};
+
+		for (String[] value : values)
+		{
+			byte[] a = KeyEncoder.encodeString(value[0]);
+			byte[] b = KeyEncoder.encodeString(value[1]);
+			byte[] s = KeyEncoder.shortestSeparator(a, b, true);
+
+			assertEquals(KeyEncoder.decodeString(s), value[2]);
+			assertTrue(KeyEncoder.compare(a, s, 0, s.length) < 0);
+			assertTrue(KeyEncoder.compare(s, b, 0, b.length) <= 0);
+		}
+
+		// byte arrays are opaque and cut at the first differing byte
+		assertEquals(KeyEncoder.shortestSeparator(new byte[]{1, (byte)0xC3, (byte)0xA5}, new byte[]{1, (byte)0xC3, (byte)0xB6, 0}, false), new byte[]{1, (byte)0xC3, (byte)0xB6});
+		assertEquals(KeyEncoder.shortestSeparator(new byte[]{1, 2}, new byte[]{1, (byte)0xC3, (byte)0xB6}, false), new byte[]{1, (byte)0xC3});
+	}
+}
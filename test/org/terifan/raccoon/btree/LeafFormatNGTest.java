@@ -0,0 +1,81 @@
+package org.terifan.raccoon.btree;
+
+import java.util.ArrayList;
+import org.terifan.raccoon.btree.ArrayMapEntry.Type;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class LeafFormatNGTest
+{
+	@Test
+	public void testEncodeDecode()
+	{
+		ArrayMap map = new ArrayMap(4096, 4096);
+
+		for (int i = 0; i < 100; i++)
+		{
+			map.insert(new ArrayMapEntry().setKeyInstance(String.format("tenant/2024-01-01/%05d", i)).setValue(("value-" + i).getBytes(), Type.DOCUMENT));
+		}
+
+		byte[] buffer = LeafFormat.encode(map);
+
+		assertTrue(buffer.length < map.getUsedSpace());
+		assertTrue(LeafFormat.estimateSize(map) < map.getUsedSpace());
+
+		ArrayMap copy = LeafFormat.decode(buffer, 4096);
+
+		assertNull(copy.integrityCheck());
+		assertEquals(copy.size(), map.size());
+		assertEquals(copy.getUsedSpace(), map.getUsedSpace());
+
+		for (int i = 0; i < map.size(); i++)
+		{
+			assertEquals(copy.get(i).getKeyInstance(), map.get(i).getKeyInstance());
+			assertEquals(copy.get(i).getValue(), map.get(i).getValue());
+		}
+	}
+
+
+	@Test
+	public void testCompressWithDictionary()
+	{
+		ArrayList<byte[]> samples = new ArrayList<>();
+		for (int j = 0; j < 16; j++)
+		{
+			samples.add(LeafFormat.encode(createLeaf(j * 100)));
+		}
+
+		byte[] dictionary = DictionaryTrainer.train(samples, 4096);
+
+		assertTrue(dictionary.length > 0 && dictionary.length <= 4096);
+
+		ArrayMap map = createLeaf(5000);
+		byte[] encoded = LeafFormat.encode(map);
+		byte[] compressed = LeafFormat.compress(encoded, dictionary);
+
+		assertEquals(compressed[0], LeafFormat.FORMAT_DICTIONARY);
+		assertTrue(compressed.length < encoded.length / 2);
+		assertEquals(LeafFormat.decompress(compressed, dictionary), encoded);
+	}
+
+
+	private static ArrayMap createLeaf(int aFirst)
+	{
+		ArrayMap map = new ArrayMap(4096, 4096);
+		for (int i = aFirst; i < aFirst + 20; i++)
+		{
+			map.insert(new ArrayMapEntry().setKeyInstance(String.format("order/%05d", i)).setValue(("{\"status\":\"pending\",\"customer\":\"customer-" + i % 7 + "\"}").getBytes(), Type.DOCUMENT));
+		}
+		return map;
+	}
+
+
+	@Test
+	public void testEncodeDecodeEmpty()
+	{
+		ArrayMap copy = LeafFormat.decode(LeafFormat.encode(new ArrayMap(4096, 4096)), 4096);
+
+		assertTrue(copy.isEmpty());
+	}
+}
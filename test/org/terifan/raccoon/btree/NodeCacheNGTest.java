@@ -0,0 +1,123 @@
+package org.terifan.raccoon.btree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import org.terifan.raccoon.blockdevice.BlockAccessor;
+import org.terifan.raccoon.blockdevice.managed.ManagedBlockDevice;
+import org.terifan.raccoon.blockdevice.storage.MemoryBlockStorage;
+import org.terifan.raccoon.document.Document;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class NodeCacheNGTest
+{
+	private final static int COUNT = 20000;
+
+
+	@Test
+	public void testEvictAndReload() throws Exception
+	{
+		BTree tree = new BTree(new BlockAccessor(new ManagedBlockDevice(new MemoryBlockStorage(512))), new BTreeConfiguration());
+
+		for (int i = 0; i < COUNT; i++)
+		{
+			tree.put(entry(i, i));
+		}
+		tree.commit();
+
+		NodeCache cache = tree.getNodeCache();
+		long fullSize = cache.getSize();
+		long interiorSize = getInteriorSize(tree);
+
+		// interior nodes with loaded children are never evicted
+		long capacity = 4 * tree.getConfiguration().getLeafSize();
+		long limit = capacity + interiorSize;
+		assertTrue(limit < fullSize / 10);
+
+		tree.setNodeCacheSize(capacity);
+
+		ArrayList<Integer> keys = new ArrayList<>();
+		for (int i = 0; i < COUNT; i++)
+		{
+			keys.add(i);
+		}
+		Collections.shuffle(keys, new Random(1));
+
+		for (int key : keys)
+		{
+			assertEquals(get(tree, key), key);
+			assertTrue(cache.getSize() <= limit);
+		}
+
+		long evictions = cache.getEvictions();
+		assertTrue(evictions > 0);
+
+		// modified nodes stay in memory until committed
+		for (int key : keys)
+		{
+			if (key % 7 == 0)
+			{
+				tree.put(entry(key, -key));
+			}
+		}
+		for (int key : keys)
+		{
+			assertEquals(get(tree, key), key % 7 == 0 ? -key : key);
+		}
+
+		assertTrue(tree.commit());
+		assertNull(tree.integrityCheck());
+
+		for (int key : keys)
+		{
+			assertEquals(get(tree, key), key % 7 == 0 ? -key : key);
+			assertTrue(cache.getSize() <= limit);
+		}
+
+		assertTrue(cache.getEvictions() > evictions);
+
+		try (BTree snapshot = tree.snapshot())
+		{
+			for (int key : keys)
+			{
+				assertEquals(get(snapshot, key), key % 7 == 0 ? -key : key);
+			}
+		}
+	}
+
+
+	private static long getInteriorSize(BTree aTree)
+	{
+		long[] size = new long[1];
+
+		aTree.visit(new BTreeVisitor()
+		{
+			@Override
+			public boolean beforeInteriorNode(BTreeInteriorNode aNode, ArrayMapEntry aLowestKey, ArrayMapEntry aHighestKey)
+			{
+				size[0] += aNode.mMap.getCapacity();
+				return true;
+			}
+		});
+
+		return size[0];
+	}
+
+
+	private static ArrayMapEntry entry(int aKey, int aValue)
+	{
+		return new ArrayMapEntry().setKeyInstance(String.format("key-%08d", aKey)).setValueInstance(new Document().put("value", aValue));
+	}
+
+
+	private static int get(BTree aTree, int aKey)
+	{
+		ArrayMapEntry entry = new ArrayMapEntry().setKeyInstance(String.format("key-%08d", aKey));
+		aTree.get(entry);
+		assertEquals(entry.getState(), OpState.MATCH);
+		Document value = entry.getValueInstance();
+		return value.getInt("value");
+	}
+}
@@ -0,0 +1,198 @@
+package org.terifan.raccoon.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+import static org.testng.Assert.*;
+
+
+public class SerialExecutorNGTest
+{
+	@Test
+	public void testFifoOrder() throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		SerialExecutor executor = new SerialExecutor(pool);
+
+		ArrayList<Integer> order = new ArrayList<>();
+		AtomicInteger active = new AtomicInteger();
+		AtomicBoolean overlap = new AtomicBoolean();
+
+		for (int i = 0; i < 1000; i++)
+		{
+			int value = i;
+			executor.execute(() ->
+			{
+				overlap.compareAndSet(false, active.incrementAndGet() > 1);
+				order.add(value);
+				active.decrementAndGet();
+			});
+		}
+
+		executor.shutdown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(executor.isTerminated());
+		assertFalse(overlap.get());
+		assertEquals(order.size(), 1000);
+		for (int i = 0; i < order.size(); i++)
+		{
+			assertEquals((int)order.get(i), i);
+		}
+
+		pool.shutdown();
+	}
+
+
+	@Test
+	public void testAwaitTerminationWaitsForQueuedTasks() throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		SerialExecutor executor = new SerialExecutor(pool);
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicInteger completed = new AtomicInteger();
+
+		executor.execute(() ->
+		{
+			try
+			{
+				latch.await();
+			}
+			catch (InterruptedException e)
+			{
+			}
+			completed.incrementAndGet();
+		});
+		executor.execute(() -> completed.incrementAndGet());
+		executor.shutdown();
+
+		assertFalse(executor.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+		latch.countDown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(completed.get(), 2);
+
+		pool.shutdown();
+	}
+
+
+	@Test
+	public void testRejectedByShutdownPool() throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		SerialExecutor executor = new SerialExecutor(pool);
+		pool.shutdown();
+
+		try
+		{
+			executor.execute(() -> {});
+			fail();
+		}
+		catch (RejectedExecutionException e)
+		{
+		}
+
+		executor.shutdown();
+
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertTrue(executor.shutdownNow().isEmpty());
+	}
+
+
+	@Test
+	public void testRejectedWhileChaining() throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		AtomicBoolean reject = new AtomicBoolean();
+		SerialExecutor executor = new SerialExecutor(command ->
+		{
+			if (reject.get())
+			{
+				throw new RejectedExecutionException();
+			}
+			pool.execute(command);
+		});
+
+		CountDownLatch latch = new CountDownLatch(1);
+		Runnable second = () -> {};
+
+		executor.execute(() ->
+		{
+			try
+			{
+				latch.await();
+			}
+			catch (InterruptedException e)
+			{
+			}
+		});
+		executor.execute(second);
+
+		reject.set(true);
+		latch.countDown();
+		executor.shutdown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		List<Runnable> remaining = executor.shutdownNow();
+		assertEquals(remaining.size(), 1);
+		assertSame(remaining.get(0), second);
+
+		pool.shutdown();
+	}
+
+
+	@Test
+	public void testRejectedWhileChainingCancelsFutures() throws Exception
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		AtomicBoolean reject = new AtomicBoolean();
+		SerialExecutor executor = new SerialExecutor(command ->
+		{
+			if (reject.get())
+			{
+				throw new RejectedExecutionException();
+			}
+			pool.execute(command);
+		});
+
+		CountDownLatch latch = new CountDownLatch(1);
+
+		Future<?> first = executor.submit(() ->
+		{
+			try
+			{
+				latch.await();
+			}
+			catch (InterruptedException e)
+			{
+			}
+		});
+		Future<?> second = executor.submit(() -> {});
+		Future<?> third = executor.submit(() -> {});
+
+		executor.shutdown();
+
+		assertFalse(executor.isTerminated());
+
+		reject.set(true);
+		latch.countDown();
+
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(first.isDone() && !first.isCancelled());
+		assertTrue(second.isCancelled());
+		assertTrue(third.isCancelled());
+		assertEquals(executor.shutdownNow().size(), 2);
+
+		pool.shutdown();
+	}
+}